@@ -0,0 +1,73 @@
+package org.inaturalist.inatcamera.classifier;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of classifying a single image.
+ *
+ * A result can be passed back into the classifier for the next frame - its lists and predictions are then
+ * overwritten in place instead of being reallocated, so callers must copy any prediction they want to keep.
+ */
+public class ClassificationResult {
+    /** The best branch (from life down), built by greedily picking the best child at each level */
+    public final List<Prediction> bestBranch = new ArrayList<>();
+
+    /** Top leaf predictions, best first (empty unless requested) */
+    public final List<Prediction> topLeaves = new ArrayList<>();
+
+    /** Best candidates per rank level (from the highest rank down), best first (empty unless requested) */
+    public final Map<Float, List<Prediction>> candidatesByRank = new LinkedHashMap<>();
+
+    // Pooled prediction objects, reused between frames
+    private final List<Prediction> mPredictions = new ArrayList<>();
+    private int mUsedPredictions = 0;
+
+    // Per-rank candidate lists (the same instances that are in candidatesByRank), by rank slot
+    private float[] mRankLevels = null;
+    private final List<List<Prediction>> mCandidates = new ArrayList<>();
+
+    void clear() {
+        bestBranch.clear();
+        topLeaves.clear();
+        for (int i = 0; i < mCandidates.size(); i++) {
+            mCandidates.get(i).clear();
+        }
+        mUsedPredictions = 0;
+    }
+
+    Prediction obtainPrediction(Node node, double probability) {
+        if (mUsedPredictions == mPredictions.size()) {
+            mPredictions.add(new Prediction(node, probability));
+        }
+        Prediction prediction = mPredictions.get(mUsedPredictions++);
+        prediction.set(node, probability);
+        return prediction;
+    }
+
+    /** Returns the candidates list of a rank slot (setting up the per-rank lists if the rank levels changed) */
+    List<Prediction> getCandidates(float[] rankLevels, int slot) {
+        if (mRankLevels != rankLevels) {
+            mRankLevels = rankLevels;
+            mCandidates.clear();
+            candidatesByRank.clear();
+            for (int i = 0; i < rankLevels.length; i++) {
+                List<Prediction> candidates = new ArrayList<>();
+                mCandidates.add(candidates);
+                candidatesByRank.put(rankLevels[i], candidates);
+            }
+        }
+        return mCandidates.get(slot);
+    }
+
+    /** Removes the per-rank lists (when candidates were not requested for this frame) */
+    void clearCandidates() {
+        if (mRankLevels != null) {
+            mRankLevels = null;
+            mCandidates.clear();
+            candidatesByRank.clear();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.inaturalist.inatcamera.classifier;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import timber.log.*;
+
+/**
+ * Process-wide cache of loaded classifiers, keyed by model and taxonomy filenames and interpreter options, so the
+ * live camera and one-shot classifications share a single loaded model. Holders must not change a shared
+ * classifier's interpreter options (see ImageClassifier.setInterpreterOptions) - they acquire a classifier with the
+ * options they want instead.
+ *
+ * Classifiers are reference counted: every acquire() must be matched by a release(). Unused classifiers are
+ * kept around for a while (so opening the camera again or classifying another photo is instant), but no more
+ * than MAX_IDLE_CLASSIFIERS of them, and each only for IDLE_TIMEOUT.
+ *
+ * Classifiers are loaded and closed outside of the registry lock, so releasing a classifier (e.g. from the UI thread)
+ * never waits for a model to load - only threads acquiring that same classifier do.
+ */
+public class ClassifierRegistry {
+    private static final String TAG = "ClassifierRegistry";
+
+    private static final int MAX_IDLE_CLASSIFIERS = 2;
+    private static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+
+    private static class Entry {
+        String key;
+        FutureTask<ImageClassifier> loader;
+        ImageClassifier classifier; // Null until loaded
+        int refCount;
+        long releaseTime; // System.nanoTime(), the clock the evictor is scheduled with
+    }
+
+    // Access-ordered, so iteration goes from the least recently used entry
+    private static final Map<String, Entry> sEntries = new LinkedHashMap<>(4, 0.75f, true);
+
+    private static final ScheduledExecutorService sEvictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ClassifierRegistry-Evictor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // The next scheduled eviction run (null if no classifier is idle)
+    private static ScheduledFuture<?> sEviction;
+
+    private static final Runnable sEvictIdle = new Runnable() {
+        @Override
+        public void run() {
+            List<ImageClassifier> evicted;
+            synchronized (ClassifierRegistry.class) {
+                evicted = evictIdle();
+            }
+            close(evicted);
+        }
+    };
+
+    /**
+     * Returns a (possibly already loaded) classifier for the given model and taxonomy, running with the given
+     * interpreter options. If another thread is loading the same classifier, this waits for it (other classifiers
+     * can be acquired and released in the meantime).
+     */
+    public static ImageClassifier acquire(final String modelFilename, final String taxonomyFilename,
+                                          final int numThreads, final boolean useXNNPack) throws IOException {
+        String key = modelFilename + "\n" + taxonomyFilename + "\n" + numThreads + "\n" + useXNNPack;
+
+        final Entry entry;
+        boolean load = false;
+        synchronized (ClassifierRegistry.class) {
+            Entry existing = sEntries.get(key);
+            if (existing == null) {
+                existing = new Entry();
+                existing.key = key;
+                final Entry loading = existing;
+                existing.loader = new FutureTask<>(new Callable<ImageClassifier>() {
+                    @Override
+                    public ImageClassifier call() throws IOException {
+                        Timber.tag(TAG).d("Loading classifier: " + modelFilename + "; " + taxonomyFilename);
+                        ImageClassifier classifier = new ImageClassifier(modelFilename, taxonomyFilename, numThreads, useXNNPack);
+                        synchronized (ClassifierRegistry.class) {
+                            loading.classifier = classifier;
+                        }
+                        return classifier;
+                    }
+                });
+                sEntries.put(key, existing);
+                load = true;
+            }
+            existing.refCount++;
+            entry = existing;
+        }
+
+        if (load) {
+            entry.loader.run();
+        }
+
+        try {
+            return entry.loader.get();
+        } catch (ExecutionException e) {
+            discard(entry);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            synchronized (ClassifierRegistry.class) {
+                entry.refCount--;
+            }
+            throw new IOException("Interrupted while waiting for the classifier to load");
+        }
+    }
+
+    /** Drops a reference to a classifier that failed loading (the entry is removed, so the next acquire retries) */
+    private static synchronized void discard(Entry entry) {
+        entry.refCount--;
+        if (sEntries.get(entry.key) == entry) {
+            sEntries.remove(entry.key);
+        }
+    }
+
+    /** Releases a classifier returned by acquire() - it's closed once it's been unused for long enough */
+    public static void release(ImageClassifier classifier) {
+        if (classifier == null) return;
+
+        List<ImageClassifier> evicted = null;
+        boolean cached = false;
+        synchronized (ClassifierRegistry.class) {
+            for (Entry entry : sEntries.values()) {
+                if (entry.classifier != classifier) continue;
+
+                cached = true;
+                if (entry.refCount > 0) entry.refCount--;
+                if (entry.refCount == 0) {
+                    entry.releaseTime = System.nanoTime();
+                    evicted = evictIdle();
+                }
+                break;
+            }
+        }
+
+        if (!cached) {
+            // Not (or no longer) cached
+            classifier.close();
+        } else if (evicted != null) {
+            close(evicted);
+        }
+    }
+
+    /**
+     * Removes the classifiers that have been unused for too long, or beyond the idle cap (least recently used first),
+     * and returns them - they're closed by the caller, once out of the registry lock. Then schedules the next run for
+     * when the next idle classifier times out.
+     */
+    private static List<ImageClassifier> evictIdle() {
+        List<ImageClassifier> evicted = new ArrayList<>();
+
+        int idleCount = 0;
+        for (Entry entry : sEntries.values()) {
+            if (entry.refCount == 0) idleCount++;
+        }
+
+        long now = System.nanoTime();
+        Iterator<Entry> iterator = sEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.refCount > 0) continue;
+
+            if ((idleCount > MAX_IDLE_CLASSIFIERS) || (now - entry.releaseTime >= IDLE_TIMEOUT)) {
+                Timber.tag(TAG).d("Closing idle classifier: " + entry.key.replace("\n", "; "));
+                iterator.remove();
+                idleCount--;
+                evicted.add(entry.classifier);
+            }
+        }
+
+        scheduleEviction(now);
+        return evicted;
+    }
+
+    /** Schedules the next eviction run for when the first idle classifier times out (if any is idle) */
+    private static void scheduleEviction(long now) {
+        long delay = Long.MAX_VALUE;
+        for (Entry entry : sEntries.values()) {
+            if (entry.refCount == 0) {
+                delay = Math.min(delay, entry.releaseTime + IDLE_TIMEOUT - now);
+            }
+        }
+
+        if (sEviction != null) {
+            sEviction.cancel(false);
+            sEviction = null;
+        }
+        if (delay != Long.MAX_VALUE) {
+            sEviction = sEvictor.schedule(sEvictIdle, Math.max(0, delay), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static void close(List<ImageClassifier> classifiers) {
+        for (ImageClassifier classifier : classifiers) {
+            classifier.close();
+        }
+    }
+}
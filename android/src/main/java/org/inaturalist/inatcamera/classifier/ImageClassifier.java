@@ -1,17 +1,23 @@
 package org.inaturalist.inatcamera.classifier;
 
 import android.graphics.Bitmap;
+import android.graphics.Matrix;
 import android.os.SystemClock;
 import android.util.Log;
 import timber.log.*;
 
+import org.inaturalist.inatcamera.BuildConfig;
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
 
 import java.util.ArrayList;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.BufferOverflowException;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
@@ -29,6 +35,10 @@ public class ImageClassifier {
     /** Dimensions of inputs. */
     private static final int DIM_BATCH_SIZE = 1;
 
+    /** Maximal number of images classified in a single inference run (see classifyBatch). */
+    public static final int MAX_BATCH_SIZE = 16;
+    public static final int DEFAULT_BATCH_SIZE = 4;
+
     private static final int DIM_PIXEL_SIZE = 3;
 
     public static final int DIM_IMG_SIZE_X = 299;
@@ -37,11 +47,28 @@ public class ImageClassifier {
     private static final int IMAGE_MEAN = 128;
     private static final float IMAGE_STD = 128.0f;
 
+    /** Normalized value for each possible channel value, i.e. (value - IMAGE_MEAN) / IMAGE_STD */
+    static final float[] NORMALIZED_VALUES = new float[256];
+    static {
+        for (int i = 0; i < NORMALIZED_VALUES.length; i++) {
+            NORMALIZED_VALUES[i] = (i - IMAGE_MEAN) / IMAGE_STD;
+        }
+    }
+
+    /** Default interpreter options (0 threads = let Tensorflow Lite decide). */
+    public static final int DEFAULT_NUM_THREADS = 0;
+    public static final boolean DEFAULT_USE_XNNPACK = false;
+
     private final Taxonomy mTaxonomy;
     private final String mModelFilename;
     private final String mTaxonomyFilename;
     private int mModelSize;
 
+    /** The memory-mapped model, and the CPU execution options the interpreter was created with. */
+    private MappedByteBuffer mModel;
+    private int mNumThreads;
+    private boolean mUseXNNPack;
+
     /* Preallocated buffers for storing image data in. */
     private int[] intValues = new int[DIM_IMG_SIZE_X * DIM_IMG_SIZE_Y];
 
@@ -51,6 +78,64 @@ public class ImageClassifier {
     /** A ByteBuffer to hold image data, to be feed into Tensorflow Lite as inputs. */
     private ByteBuffer imgData;
 
+    /** Float view of imgData, and a row of normalized values that is written into it in bulk (float models). */
+    private FloatBuffer imgFloats;
+    private float[] rowValues;
+
+    /**
+     * Quantized value for each possible channel value, and a row of them written in bulk (quantized models).
+     * Volatile since convertYuvFrame reads it without the classifier lock, while setInterpreterOptions rebuilds it.
+     */
+    private volatile byte[] quantizedValues;
+    private byte[] rowBytes;
+
+    /** Data types of the model input and output (float32, or uint8/int8 for quantized models). */
+    private DataType mInputType;
+    private DataType mOutputType;
+    private float mOutputScale;
+    private int mOutputZeroPoint;
+
+    /** Preallocated model inputs and outputs, reused for every frame. */
+    private Object[] mInputs;
+    private Object mOutput;
+    private Map<Integer, Object> mOutputs = new HashMap<>();
+    private float[] mDequantizedOutput;
+
+    /** Converts camera frames into model input (see convertYuvFrame). */
+    private final YuvConverter mYuvConverter = new YuvConverter(DIM_IMG_SIZE_X, DIM_IMG_SIZE_Y);
+
+    /** Reused model inputs array for classifying a caller-provided input (see classifyInput). */
+    private final Object[] mExternalInputs = new Object[1];
+
+    /**
+     * Batched classification has its own interpreter (created on first use), so resizing its input never touches the
+     * interpreter of the live frames - and it runs under its own lock, so a batch doesn't hold up live frames either.
+     * Lock order: mBatchLock, then the classifier itself.
+     */
+    private final Object mBatchLock = new Object();
+    private Interpreter mBatchTFlite;
+
+    /** The batch size the batch interpreter's input is currently resized to. */
+    private int mInputBatchSize;
+
+    /**
+     * Inputs and outputs for batched classification. The input buffer is allocated for the biggest batch seen, the
+     * outputs are reused for as long as the batch size doesn't change.
+     */
+    private ByteBuffer mBatchData;
+    private FloatBuffer mBatchFloats;
+    private int mBatchCapacity;
+    private int mBatchSize;
+    private Object[] mBatchInputs;
+    private Object mBatchOutput;
+    private Map<Integer, Object> mBatchOutputs = new HashMap<>();
+    private float[] mBatchDequantizedOutput;
+
+    /** How long the stages of the last (single image) classification took (in milliseconds). */
+    private long mLastPreprocessingTime;
+    private long mLastInferenceTime;
+    private long mLastPostProcessingTime;
+
     public void setFilterByTaxonId(Integer taxonId) {
         mTaxonomy.setFilterByTaxonId(taxonId);
     }
@@ -67,65 +152,507 @@ public class ImageClassifier {
         return mTaxonomy.getNegativeFilter();
     }
 
+    /**
+     * Compiles a taxon filter into a leaf mask that can be passed to classifyFrame - this lets several users of a
+     * shared classifier each have their own filter (null = no filter).
+     */
+    public float[] compileLeafMask(Integer taxonId, boolean negative) {
+        return mTaxonomy.compileLeafMask(taxonId, negative);
+    }
+
 
     /** Initializes an {@code ImageClassifier}. */
     public ImageClassifier(String modelPath, String taxonomyPath) throws IOException {
+        this(modelPath, taxonomyPath, DEFAULT_NUM_THREADS, DEFAULT_USE_XNNPACK);
+    }
+
+    /** Initializes an {@code ImageClassifier}, running inference with the given CPU execution options. */
+    public ImageClassifier(String modelPath, String taxonomyPath, int numThreads, boolean useXNNPack) throws IOException {
         mModelFilename = modelPath;
         mTaxonomyFilename = taxonomyPath;
-        mTFlite = new Interpreter(loadModelFile());
-        imgData =
-                ByteBuffer.allocateDirect(
-                        4 * DIM_BATCH_SIZE * DIM_IMG_SIZE_X * DIM_IMG_SIZE_Y * DIM_PIXEL_SIZE);
-        imgData.order(ByteOrder.nativeOrder());
+        mModel = loadModelFile();
+        mNumThreads = numThreads;
+        mUseXNNPack = useXNNPack;
+        mTFlite = createInterpreter();
         Timber.tag(TAG).d("Created a Tensorflow Lite Image Classifier.");
 
-        mTaxonomy = new Taxonomy(new FileInputStream(mTaxonomyFilename));
+        mTaxonomy = new Taxonomy(new File(mTaxonomyFilename));
+        mModelSize = mTaxonomy.getModelSize();
+
+        setUpTensors();
+    }
+
+    /**
+     * Creates a classifier for a float model over the given taxonomy, without loading a model - for testing all the
+     * per-frame work around inference (see runModel).
+     */
+    ImageClassifier(Taxonomy taxonomy) throws IOException {
+        mModelFilename = null;
+        mTaxonomyFilename = null;
+        mTaxonomy = taxonomy;
         mModelSize = mTaxonomy.getModelSize();
+        mInputType = DataType.FLOAT32;
+        mOutputType = DataType.FLOAT32;
+        setUpBuffers();
+    }
+
+    private Interpreter createInterpreter() {
+        Interpreter.Options options = new Interpreter.Options();
+        if (mNumThreads > 0) {
+            options.setNumThreads(mNumThreads);
+        }
+        options.setUseXNNPACK(mUseXNNPack);
+        Timber.tag(TAG).d("Creating interpreter - threads: " + mNumThreads + "; XNNPACK: " + mUseXNNPack);
+        return new Interpreter(mModel, options);
+    }
+
+    /**
+     * Changes the CPU execution options, recreating the interpreters (but not reloading the taxonomy) if needed.
+     * Not for classifiers shared through ClassifierRegistry - acquire one with the wanted options instead.
+     */
+    public void setInterpreterOptions(int numThreads, boolean useXNNPack) throws IOException {
+        synchronized (mBatchLock) {
+            synchronized (this) {
+                if ((mTFlite == null) || ((numThreads == mNumThreads) && (useXNNPack == mUseXNNPack))) {
+                    return;
+                }
+
+                mTFlite.close();
+                mTFlite = null;
+                closeBatchInterpreter();
+
+                mNumThreads = numThreads;
+                mUseXNNPack = useXNNPack;
+                mTFlite = createInterpreter();
+                setUpTensors();
+            }
+        }
+    }
+
+    public int getNumThreads() {
+        return mNumThreads;
+    }
+
+    public boolean getUseXNNPack() {
+        return mUseXNNPack;
+    }
+
+    /** Allocates the input/output buffers, according to the data types of the model's tensors (float or quantized) */
+    private void setUpTensors() throws IOException {
+        Tensor inputTensor = mTFlite.getInputTensor(0);
+        Tensor outputTensor = mTFlite.getOutputTensor(0);
+        mInputType = inputTensor.dataType();
+        mOutputType = outputTensor.dataType();
+        Timber.tag(TAG).d("Model input type: " + mInputType + "; output type: " + mOutputType);
+
+        if (isQuantized(mInputType)) {
+            Tensor.QuantizationParams params = inputTensor.quantizationParams();
+            quantizedValues = quantizeValues(params.getScale(), params.getZeroPoint(), mInputType);
+        }
+        if (isQuantized(mOutputType)) {
+            Tensor.QuantizationParams params = outputTensor.quantizationParams();
+            mOutputScale = params.getScale();
+            mOutputZeroPoint = params.getZeroPoint();
+        }
+
+        setUpBuffers();
+    }
+
+    /** Allocates the input/output buffers for the data types of the model's tensors */
+    private void setUpBuffers() throws IOException {
+        int pixelValues = DIM_BATCH_SIZE * DIM_IMG_SIZE_X * DIM_IMG_SIZE_Y * DIM_PIXEL_SIZE;
+        if (mInputType == DataType.FLOAT32) {
+            imgData = ByteBuffer.allocateDirect(4 * pixelValues);
+            imgData.order(ByteOrder.nativeOrder());
+            imgFloats = imgData.asFloatBuffer();
+            rowValues = new float[DIM_IMG_SIZE_X * DIM_PIXEL_SIZE];
+        } else if (isQuantized(mInputType)) {
+            imgData = ByteBuffer.allocateDirect(pixelValues);
+            imgData.order(ByteOrder.nativeOrder());
+            rowBytes = new byte[DIM_IMG_SIZE_X * DIM_PIXEL_SIZE];
+        } else {
+            throw new IOException("Unsupported model input type: " + mInputType);
+        }
+        mInputs = new Object[] { imgData };
+
+        if (mOutputType == DataType.FLOAT32) {
+            mOutput = new float[1][mModelSize];
+        } else if (isQuantized(mOutputType)) {
+            mOutput = new byte[1][mModelSize];
+            mDequantizedOutput = new float[mModelSize];
+        } else {
+            throw new IOException("Unsupported model output type: " + mOutputType);
+        }
+        mOutputs.put(0, mOutput);
+
+        mBatchData = null;
+        mBatchFloats = null;
+        mBatchCapacity = 0;
+        mBatchSize = 0;
+        mBatchOutput = null;
+        mBatchDequantizedOutput = isQuantized(mOutputType) ? new float[mModelSize] : null;
+    }
+
+    /** Resizes the batch interpreter's input to the given number of images (creating the interpreter if needed) */
+    private void setInputBatchSize(int batchSize) {
+        if (mBatchTFlite == null) {
+            mBatchTFlite = createInterpreter();
+            mInputBatchSize = DIM_BATCH_SIZE;
+        }
+        if (batchSize == mInputBatchSize) return;
+
+        int[] shape = mBatchTFlite.getInputTensor(0).shape();
+        shape[0] = batchSize;
+        mBatchTFlite.resizeInput(0, shape);
+        mBatchTFlite.allocateTensors();
+        mInputBatchSize = batchSize;
+    }
+
+    private void closeBatchInterpreter() {
+        if (mBatchTFlite == null) return;
+        mBatchTFlite.close();
+        mBatchTFlite = null;
+    }
+
+    /** Makes sure the batch buffers are big enough for the given batch size, and sized exactly to it */
+    private void setUpBatchBuffers(int batchSize) {
+        int imageValues = DIM_IMG_SIZE_X * DIM_IMG_SIZE_Y * DIM_PIXEL_SIZE;
+
+        if (batchSize > mBatchCapacity) {
+            if (mInputType == DataType.FLOAT32) {
+                mBatchData = ByteBuffer.allocateDirect(4 * imageValues * batchSize);
+                mBatchData.order(ByteOrder.nativeOrder());
+                mBatchFloats = mBatchData.asFloatBuffer();
+            } else {
+                mBatchData = ByteBuffer.allocateDirect(imageValues * batchSize);
+                mBatchData.order(ByteOrder.nativeOrder());
+            }
+            mBatchCapacity = batchSize;
+        }
+
+        // The interpreter expects the input buffer to be exactly the size of the (resized) input tensor
+        int bytesPerValue = mInputType == DataType.FLOAT32 ? 4 : 1;
+        mBatchData.clear();
+        mBatchData.limit(bytesPerValue * imageValues * batchSize);
+        if (mBatchFloats != null) {
+            mBatchFloats.clear();
+            mBatchFloats.limit(imageValues * batchSize);
+        }
+        if ((batchSize == mBatchSize) && (mBatchOutput != null)) return;
+
+        // And its outputs to be of the exact shape of the output tensor
+        mBatchInputs = new Object[] { mBatchData.slice().order(ByteOrder.nativeOrder()) };
+        if (mOutputType == DataType.FLOAT32) {
+            mBatchOutput = new float[batchSize][mModelSize];
+        } else {
+            mBatchOutput = new byte[batchSize][mModelSize];
+        }
+        mBatchOutputs.put(0, mBatchOutput);
+        mBatchSize = batchSize;
+    }
+
+    private static boolean isQuantized(DataType type) {
+        return (type == DataType.UINT8) || (type == DataType.INT8);
+    }
+
+    /** Builds a lookup table of the quantized model input for each possible channel value */
+    static byte[] quantizeValues(float scale, int zeroPoint, DataType type) {
+        int min = type == DataType.UINT8 ? 0 : -128;
+        int max = type == DataType.UINT8 ? 255 : 127;
+
+        byte[] values = new byte[256];
+        for (int i = 0; i < values.length; i++) {
+            // Quantize the normalized value (if the model has no quantization info, just feed it the raw values)
+            int value = scale != 0 ? Math.round(NORMALIZED_VALUES[i] / scale) + zeroPoint : i + min;
+            values[i] = (byte) Math.max(min, Math.min(max, value));
+        }
+        return values;
+    }
+
+    /** Returns the model output as float scores (dequantizing it first for quantized models) */
+    private float[] getOutputScores() {
+        return getOutputScores(mOutput, 0, mDequantizedOutput);
+    }
+
+    /** Returns the float scores of a single image out of a (batched) model output, dequantized into the given array */
+    private float[] getOutputScores(Object modelOutput, int index, float[] dequantizedOutput) {
+        if (mOutputType == DataType.FLOAT32) {
+            return ((float[][]) modelOutput)[index];
+        }
+
+        byte[] output = ((byte[][]) modelOutput)[index];
+        float scale = mOutputScale != 0 ? mOutputScale : 1.0f / 255;
+        if (mOutputType == DataType.UINT8) {
+            for (int i = 0; i < output.length; i++) {
+                dequantizedOutput[i] = ((output[i] & 0xFF) - mOutputZeroPoint) * scale;
+            }
+        } else {
+            for (int i = 0; i < output.length; i++) {
+                dequantizedOutput[i] = (output[i] - mOutputZeroPoint) * scale;
+            }
+        }
+        return dequantizedOutput;
+    }
+
+    public long getLastPreprocessingTime() {
+        return mLastPreprocessingTime;
+    }
+
+    public long getLastInferenceTime() {
+        return mLastInferenceTime;
+    }
+
+    public long getLastPostProcessingTime() {
+        return mLastPostProcessingTime;
     }
 
     /** Classifies a frame from the preview stream. */
     public List<Prediction> classifyFrame(Bitmap bitmap) {
-        if (mTFlite == null) {
+        ClassificationResult result = classifyFrame(bitmap, 0, 0);
+        return result != null ? result.bestBranch : null;
+    }
+
+    /**
+     * Classifies a frame, returning the best branch along with the top leaf predictions and the best candidates
+     * for each rank level (if the counts are bigger than zero).
+     */
+    public ClassificationResult classifyFrame(Bitmap bitmap, int topLeavesCount, int candidatesPerRank) {
+        ClassificationResult result = new ClassificationResult();
+        return classifyFrame(bitmap, topLeavesCount, candidatesPerRank, result) ? result : null;
+    }
+
+    /**
+     * Classifies a frame into a caller-provided (reusable) result. Once warmed up, this doesn't allocate anything.
+     *
+     * @return false if the frame could not be classified at all (the result is then empty)
+     */
+    public boolean classifyFrame(Bitmap bitmap, int topLeavesCount, int candidatesPerRank, ClassificationResult result) {
+        return classifyFrame(bitmap, mTaxonomy.getLeafMask(), topLeavesCount, candidatesPerRank, result);
+    }
+
+    /** Same as above, but filtering with a given leaf mask (see compileLeafMask) instead of the classifier's own filter */
+    public boolean classifyFrame(Bitmap bitmap, float[] leafMask, int topLeavesCount, int candidatesPerRank, ClassificationResult result) {
+        return classifyFrame(bitmap, leafMask, null, 0, topLeavesCount, candidatesPerRank, result);
+    }
+
+    /**
+     * Same as above, but first smoothing the model output with the previous frames' (if a smoother is given).
+     *
+     * @param timestamp when the frame was taken (in milliseconds), used for smoothing
+     */
+    public synchronized boolean classifyFrame(Bitmap bitmap, float[] leafMask, ScoreSmoother smoother, long timestamp,
+                                              int topLeavesCount, int candidatesPerRank, ClassificationResult result) {
+        result.clear();
+
+        if (!isInitialized()) {
             Timber.tag(TAG).e("Image classifier has not been initialized; Skipped.");
-            return null;
+            return false;
         }
         if (bitmap == null) {
             Timber.tag(TAG).e("Null input bitmap");
-            return null;
+            return false;
         }
 
-        convertBitmapToByteBuffer(bitmap);
         long startTime = SystemClock.uptimeMillis();
+        convertBitmapToByteBuffer(bitmap);
 
-        byte[] arr = new byte[imgData.remaining()];
-        imgData.get(arr);
+        return runInference(mInputs, startTime, leafMask, smoother, timestamp, topLeavesCount, candidatesPerRank, result);
+    }
 
-        Map<Integer, Object> expectedOutputs = new HashMap<>();
-        for (int i = 0; i < 1; i++) {
-            expectedOutputs.put(i, new float[1][mModelSize]);
+    /**
+     * Classifies a model input that was already prepared by the caller (e.g. a camera frame converted with
+     * convertYuvFrame into an input from createInput), without any further copying.
+     */
+    public synchronized boolean classifyInput(ModelInput input, float[] leafMask, ScoreSmoother smoother, long timestamp,
+                                              int topLeavesCount, int candidatesPerRank, ClassificationResult result) {
+        result.clear();
+
+        if (!isInitialized()) {
+            Timber.tag(TAG).e("Image classifier has not been initialized; Skipped.");
+            return false;
+        }
+        if ((input == null) || (input.data.capacity() != imgData.capacity())) {
+            Timber.tag(TAG).e("Invalid input buffer: " + input);
+            return false;
         }
 
-        Object[] input = { imgData };
-        List<Prediction> predictions = null;
+        input.data.rewind();
+        mExternalInputs[0] = input.data;
         try {
-            mTFlite.runForMultipleInputsOutputs(input, expectedOutputs);
-            predictions = mTaxonomy.predict(expectedOutputs);
+            return runInference(mExternalInputs, SystemClock.uptimeMillis(), leafMask, smoother, timestamp,
+                    topLeavesCount, candidatesPerRank, result);
+        } finally {
+            mExternalInputs[0] = null;
+        }
+    }
+
+    /** Runs the model on a single prepared input, and aggregates its output up the taxonomy into the result */
+    private boolean runInference(Object[] inputs, long startTime, float[] leafMask, ScoreSmoother smoother, long timestamp,
+                                 int topLeavesCount, int candidatesPerRank, ClassificationResult result) {
+        long inferenceStartTime = SystemClock.uptimeMillis();
+
+        try {
+            runModel(inputs, mOutputs);
+            long inferenceEndTime = SystemClock.uptimeMillis();
+            float[] scores = getOutputScores();
+            if (smoother != null) {
+                scores = smoother.smooth(scores, timestamp);
+            }
+            mTaxonomy.predict(scores, leafMask, topLeavesCount, candidatesPerRank, result);
+            long endTime = SystemClock.uptimeMillis();
+
+            mLastPreprocessingTime = inferenceStartTime - startTime;
+            mLastInferenceTime = inferenceEndTime - inferenceStartTime;
+            mLastPostProcessingTime = endTime - inferenceEndTime;
         } catch (Exception exc) {
             exc.printStackTrace();
-            return new ArrayList<Prediction>();
+            result.clear();
         } catch (OutOfMemoryError exc) {
             exc.printStackTrace();
-            return new ArrayList<Prediction>();
+            result.clear();
         }
-        long endTime = SystemClock.uptimeMillis();
 
-        return predictions;
+        // Only logged when something is listening, so classifying a frame doesn't build log strings for nothing
+        if (BuildConfig.DEBUG && (Timber.treeCount() > 0)) {
+            Timber.tag(TAG).d("Timecost to put values into ByteBuffer: " + Long.toString(mLastPreprocessingTime) +
+                    "; run model inference: " + Long.toString(mLastInferenceTime) +
+                    "; post-processing: " + Long.toString(mLastPostProcessingTime));
+        }
+
+        return true;
+    }
+
+    /** Whether the model is loaded (i.e. the classifier wasn't closed) */
+    boolean isInitialized() {
+        return mTFlite != null;
+    }
+
+    /** Runs the model's interpreter on the given inputs, writing into the given outputs */
+    void runModel(Object[] inputs, Map<Integer, Object> outputs) {
+        mTFlite.runForMultipleInputsOutputs(inputs, outputs);
+    }
+
+    /**
+     * Classifies several images (already resized to DIM_IMG_SIZE_X x DIM_IMG_SIZE_Y) in a single inference run,
+     * which has a higher throughput than classifying them one by one. The results are written into the
+     * caller-provided results (one per bitmap).
+     *
+     * @return false if the images could not be classified at all (the results are then empty)
+     */
+    public boolean classifyBatch(Bitmap[] bitmaps, int count, float[] leafMask, int topLeavesCount, int candidatesPerRank, ClassificationResult[] results) {
+        for (int i = 0; i < count; i++) {
+            results[i].clear();
+        }
+
+        if ((count <= 0) || (count > MAX_BATCH_SIZE)) {
+            Timber.tag(TAG).e("Invalid batch size: " + count);
+            return false;
+        }
+
+        synchronized (mBatchLock) {
+            if (mTFlite == null) {
+                Timber.tag(TAG).e("Image classifier has not been initialized; Skipped.");
+                return false;
+            }
+
+            long startTime = SystemClock.uptimeMillis();
+            setUpBatchBuffers(count);
+            for (int i = 0; i < count; i++) {
+                // Shares the bitmap conversion buffers with classifyFrame
+                synchronized (this) {
+                    writeBitmap(bitmaps[i], mBatchData, mBatchFloats);
+                }
+            }
+            long inferenceStartTime = SystemClock.uptimeMillis();
+
+            try {
+                setInputBatchSize(count);
+                mBatchTFlite.runForMultipleInputsOutputs(mBatchInputs, mBatchOutputs);
+                long inferenceEndTime = SystemClock.uptimeMillis();
+                for (int i = 0; i < count; i++) {
+                    mTaxonomy.predict(getOutputScores(mBatchOutput, i, mBatchDequantizedOutput), leafMask,
+                            topLeavesCount, candidatesPerRank, results[i]);
+                }
+                long endTime = SystemClock.uptimeMillis();
+
+                if (BuildConfig.DEBUG) {
+                    Timber.tag(TAG).d("Batch of " + count + " - timecost to put values into ByteBuffer: " + Long.toString(inferenceStartTime - startTime) +
+                            "; run model inference: " + Long.toString(inferenceEndTime - inferenceStartTime) +
+                            "; post-processing: " + Long.toString(endTime - inferenceEndTime));
+                }
+            } catch (Exception exc) {
+                exc.printStackTrace();
+                for (int i = 0; i < count; i++) {
+                    results[i].clear();
+                }
+                return false;
+            } catch (OutOfMemoryError exc) {
+                exc.printStackTrace();
+                for (int i = 0; i < count; i++) {
+                    results[i].clear();
+                }
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /** Allocates a single model input (see convertYuvFrame and classifyInput) */
+    public synchronized ModelInput createInput() {
+        if (imgData == null) return null;
+
+        return new ModelInput(imgData.capacity(), imgFloats != null);
+    }
+
+    /**
+     * Converts a YUV_420_888 camera frame straight into a model input (from createInput), in one pass: the frame is
+     * center-cropped to a square, rotated by the given (clockwise) rotation and scaled down to the model input size
+     * (see YuvConverter).
+     */
+    public void convertYuvFrame(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                                int yRowStride, int uvRowStride, int uvPixelStride,
+                                int width, int height, int rotation, ModelInput input) {
+        // Not synchronized on the classifier itself, so converting a frame doesn't wait for an inference to end
+        synchronized (mYuvConverter) {
+            input.data.rewind();
+            byte[] quantized = quantizedValues;
+            if (quantized == null) {
+                input.floats.rewind();
+                mYuvConverter.convert(yPlane, uPlane, vPlane, yRowStride, uvRowStride, uvPixelStride,
+                        width, height, rotation, NORMALIZED_VALUES, input.floats);
+            } else {
+                mYuvConverter.convert(yPlane, uPlane, vPlane, yRowStride, uvRowStride, uvPixelStride,
+                        width, height, rotation, quantized, input.data);
+            }
+            input.data.rewind();
+        }
+    }
+
+    /**
+     * Resizes a live preview bitmap to the model input size the same way scan stream frames are (see
+     * convertYuvFrame): center-cropped to a square, then scaled (bilinear). Photos are not preprocessed this way -
+     * they're scaled to the model input size as a whole. Returns the bitmap itself if it's already at the model
+     * input size.
+     */
+    public static Bitmap cropToInputSize(Bitmap bitmap) {
+        int size = Math.min(bitmap.getWidth(), bitmap.getHeight());
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) DIM_IMG_SIZE_X / size, (float) DIM_IMG_SIZE_Y / size);
+        return Bitmap.createBitmap(bitmap, (bitmap.getWidth() - size) / 2, (bitmap.getHeight() - size) / 2,
+                size, size, matrix, true);
     }
 
     /** Closes tflite to release resources. */
     public void close() {
-        mTFlite.close();
-        mTFlite = null;
+        synchronized (mBatchLock) {
+            synchronized (this) {
+                if (mTFlite == null) return;
+                mTFlite.close();
+                mTFlite = null;
+                closeBatchInterpreter();
+            }
+        }
     }
 
     /** Memory-map the model file in Assets. */
@@ -141,27 +668,58 @@ public class ImageClassifier {
             return;
         }
         imgData.rewind();
+        if (imgFloats != null) {
+            imgFloats.rewind();
+        }
+        writeBitmap(bitmap, imgData, imgFloats);
+        imgData.rewind();
+    }
+
+    /** Appends the image data of a bitmap at the current position of the buffer (or of its float view, for float models). */
+    private void writeBitmap(Bitmap bitmap, ByteBuffer data, FloatBuffer floats) {
         bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
 
         try {
-            // Convert the image to floating point.
-            int pixel = 0;
-            long startTime = SystemClock.uptimeMillis();
-            for (int i = 0; i < DIM_IMG_SIZE_X; ++i) {
-                for (int j = 0; j < DIM_IMG_SIZE_Y; ++j) {
-                    final int val = intValues[pixel++];
-                    imgData.putFloat((((val >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((val >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((val) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
+            byte[] quantized = quantizedValues;
+            if (quantized == null) {
+                writePixels(intValues, DIM_IMG_SIZE_X, DIM_IMG_SIZE_Y, NORMALIZED_VALUES, rowValues, floats);
+            } else {
+                writePixels(intValues, DIM_IMG_SIZE_X, DIM_IMG_SIZE_Y, quantized, rowBytes, data);
             }
-            long endTime = SystemClock.uptimeMillis();
-            Timber.tag(TAG).d("Timecost to put values into ByteBuffer: " + Long.toString(endTime - startTime));
         } catch (BufferOverflowException exc) {
             Timber.tag(TAG).e("Exception while converting to byte buffer: " + exc);
             Timber.tag(TAG).e(exc);
         }
     }
 
-}
+    /** Converts ARGB pixels to floating point through a lookup table, one row at a time (row is a row of RGB values) */
+    static void writePixels(int[] pixels, int width, int height, float[] values, float[] row, FloatBuffer floats) {
+        int pixel = 0;
+        for (int i = 0; i < height; ++i) {
+            int value = 0;
+            for (int j = 0; j < width; ++j) {
+                final int val = pixels[pixel++];
+                row[value++] = values[(val >> 16) & 0xFF];
+                row[value++] = values[(val >> 8) & 0xFF];
+                row[value++] = values[val & 0xFF];
+            }
+            floats.put(row);
+        }
+    }
 
+    /** Quantized model - converts ARGB pixels to (u)int8 values through a lookup table, one row at a time */
+    static void writePixels(int[] pixels, int width, int height, byte[] values, byte[] row, ByteBuffer data) {
+        int pixel = 0;
+        for (int i = 0; i < height; ++i) {
+            int value = 0;
+            for (int j = 0; j < width; ++j) {
+                final int val = pixels[pixel++];
+                row[value++] = values[(val >> 16) & 0xFF];
+                row[value++] = values[(val >> 8) & 0xFF];
+                row[value++] = values[val & 0xFF];
+            }
+            data.put(row);
+        }
+    }
+
+}
@@ -0,0 +1,22 @@
+package org.inaturalist.inatcamera.classifier;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A buffer holding a single model input (see ImageClassifier.createInput), along with its float view for float
+ * models - the view is created once, so converting a frame into it doesn't allocate anything.
+ */
+public class ModelInput {
+    final ByteBuffer data;
+
+    /** Float view of data (null for quantized models) */
+    final FloatBuffer floats;
+
+    ModelInput(int capacity, boolean isFloat) {
+        data = ByteBuffer.allocateDirect(capacity);
+        data.order(ByteOrder.nativeOrder());
+        floats = isFloat ? data.asFloatBuffer() : null;
+    }
+}
@@ -4,6 +4,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class Node {
+    // Taxon ID of nodes whose key isn't numeric
+    public static final int NO_TAXON_ID = -1;
+
     public String key;
 
     public String name;
@@ -14,12 +17,29 @@ public class Node {
 
     public String leafId;
 
+    // Position of this node in the taxonomy's flattened (post-order) arrays
+    public transient int index = -1;
+
+    // Numeric key (or NO_TAXON_ID) and the taxon IDs of the ancestors (root first), filled in with the node view
+    public transient int taxonId = NO_TAXON_ID;
+    public transient int[] ancestorIds;
+
+    /** @deprecated Use {@link #getParent()} */
+    @Deprecated
     public transient Node parent;
 
+    /**
+     * @deprecated Use {@link #getChildren()} - for the nodes of a loaded taxonomy, this is a read-only list whose
+     * nodes are created on demand.
+     */
+    @Deprecated
     public transient List<Node> children = new ArrayList<>();
 
+    // The taxonomy this node is a view of (null for nodes parsed from a CSV line)
+    transient Taxonomy taxonomy;
+
     public String toString() {
-        return String.format("%s: %s (rank = %s; parent = %s)", key, name, rank, parent != null ? parent.key : "N/A");
+        return String.format("%s: %s (rank = %s; parent = %s)", key, name, rank, (parentKey != null) && (parentKey.length() > 0) ? parentKey : "N/A");
     }
 
     // Initialize the node from a CSV line
@@ -28,18 +48,67 @@ public class Node {
     // OLD:
     // parent_taxon_id,taxon_id,class_id,rank_level,leaf_class_id,name
     public Node(String line) {
-        String[] parts = line.trim().split(",", 6);
+        this(line, false);
+    }
+
+    public Node(String line, boolean oldFormat) {
+        line = line.trim();
+
+        // Split by hand (names may contain commas, so the last column takes the rest of the line)
+        String[] parts = new String[oldFormat ? 6 : 5];
+        int start = 0;
+        for (int i = 0; i < parts.length - 1; i++) {
+            int end = line.indexOf(',', start);
+            parts[i] = line.substring(start, end);
+            start = end + 1;
+        }
+        parts[parts.length - 1] = line.substring(start);
+
+        int column = 0;
+        this.parentKey = parts[column++];
+        this.key = parts[column++];
+        if (oldFormat) column++; // Skip class_id
+        this.rank = Float.parseFloat(parts[column++]);
+        this.leafId = parts[column++];
+        this.name = parts[column];
+    }
 
-        this.parentKey = parts[0];
-        this.key = parts[1];
-        this.rank = Float.parseFloat(parts[2]);
-        this.leafId = parts[3];
-        this.name = parts[4];
+    /** Returns whether a taxonomy CSV header line is in the OLD layout (which has an extra class_id column) */
+    public static boolean isOldFormat(String header) {
+        return (header != null) && header.trim().split(",").length == 6;
     }
 
     public Node() {
     }
 
+    /** Parses a node key into a taxon ID (NO_TAXON_ID if it's not all digits) */
+    public static int parseTaxonId(String key) {
+        if ((key == null) || (key.length() == 0)) return NO_TAXON_ID;
+
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if ((c < '0') || (c > '9')) return NO_TAXON_ID;
+        }
+
+        try {
+            return Integer.parseInt(key);
+        } catch (NumberFormatException exc) {
+            return NO_TAXON_ID;
+        }
+    }
+
+    /** Returns the parent node (null for life) */
+    public Node getParent() {
+        return parent;
+    }
+
+    /** Returns the child nodes (read-only for the nodes of a loaded taxonomy) */
+    public List<Node> getChildren() {
+        return children;
+    }
+
+    /** @deprecated Taxonomy trees are built from the CSV file - the nodes of a loaded taxonomy can't be modified. */
+    @Deprecated
     public void addChild(Node child) {
         children.add(child);
         child.parent = this;
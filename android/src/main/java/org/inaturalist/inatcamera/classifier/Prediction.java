@@ -2,13 +2,16 @@ package org.inaturalist.inatcamera.classifier;
 
 public class Prediction {
     public Node node;
-    public Double probability;
-    public Float rank;
+    public double probability;
+    public float rank;
 
     public Prediction(Node n, double p) {
+        set(n, p);
+    }
+
+    void set(Node n, double p) {
         node = n;
         probability = p;
         rank = n.rank;
     }
 }
-
@@ -0,0 +1,53 @@
+package org.inaturalist.inatcamera.classifier;
+
+import timber.log.*;
+
+/**
+ * Converts predictions into the maps sent back to React Native (taxon ID, name, score, rank and ancestor IDs). The
+ * maps and arrays are created through an Output - React Native's WritableMaps in the app, plain collections on the
+ * JVM - so the app and the benchmarks run the same code.
+ */
+public final class PredictionSerializer {
+    private static final String TAG = "PredictionSerializer";
+
+    /** Creates and fills maps (M) and arrays (A) */
+    public interface Output<M, A> {
+        M createMap();
+        A createArray();
+        void putInt(M map, String key, int value);
+        void putDouble(M map, String key, double value);
+        void putString(M map, String key, String value);
+        void putArray(M map, String key, A array);
+        void pushInt(A array, int value);
+    }
+
+    private PredictionSerializer() {
+    }
+
+    /** Converts a prediction to a map (null if it has no node, or its node has no numeric taxon ID) */
+    public static <M, A> M toMap(Prediction prediction, Output<M, A> output) {
+        Node node = prediction.node;
+        if (node == null) return null;
+
+        // Taxon and ancestor IDs are precomputed when the taxonomy is loaded
+        if (node.taxonId == Node.NO_TAXON_ID) {
+            // Invalid node key
+            Timber.tag(TAG).e("nodeToMap - invalid taxon ID: " + node.key);
+            return null;
+        }
+
+        M result = output.createMap();
+        output.putInt(result, "taxon_id", node.taxonId);
+        output.putString(result, "name", node.name);
+        output.putDouble(result, "score", prediction.probability);
+        output.putDouble(result, "rank", node.rank);
+
+        A ancestors = output.createArray();
+        for (int id : node.ancestorIds) {
+            output.pushInt(ancestors, id);
+        }
+        output.putArray(result, "ancestor_ids", ancestors);
+
+        return result;
+    }
+}
@@ -0,0 +1,172 @@
+package org.inaturalist.inatcamera.classifier;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cheaply detects whether a frame is different enough from the last classified frame to be worth classifying,
+ * by comparing tiny luma thumbnails of the two (mean absolute difference of their pixels, 0..255).
+ *
+ * The threshold can be changed and the counters read from any thread, but hasChanged() and reset() must all be
+ * called from the same (classification) thread - each classification stream should have its own detector.
+ */
+public class SceneChangeDetector {
+    /** Size of the luma thumbnail frames are compared by. */
+    private static final int THUMBNAIL_SIZE = 16;
+    public static final int THUMBNAIL_LENGTH = THUMBNAIL_SIZE * THUMBNAIL_SIZE;
+
+    private volatile float mThreshold;
+
+    /** Thumbnail of the current frame, and of the last classified one */
+    private final int[] mThumbnail = new int[THUMBNAIL_LENGTH];
+    private final int[] mReference = new int[THUMBNAIL_LENGTH];
+    private boolean mHasReference = false;
+
+    /** How many frames were checked, and how many of them were skipped (unchanged) - only written by hasChanged() */
+    private volatile long mFrameCount;
+    private volatile long mSkippedCount;
+
+    /**
+     * @param threshold the mean absolute luma difference (0..255) above which a frame is considered changed
+     *                  (0 = every frame is considered changed)
+     */
+    public SceneChangeDetector(float threshold) {
+        mThreshold = threshold;
+    }
+
+    public void setThreshold(float threshold) {
+        mThreshold = threshold;
+    }
+
+    public float getThreshold() {
+        return mThreshold;
+    }
+
+    /** Forgets the last classified frame, so the next frame is considered changed */
+    public void reset() {
+        mHasReference = false;
+    }
+
+    /**
+     * Checks whether an ARGB frame changed since the last classified frame. If it did, it becomes the new
+     * reference frame (it's assumed it's going to be classified).
+     */
+    public boolean hasChanged(int[] pixels, int width, int height) {
+        if (mThreshold > 0) {
+            computeThumbnail(pixels, width, height, mThumbnail);
+        }
+        return hasChanged(mThumbnail);
+    }
+
+    /** Same as above, for a thumbnail that was already computed (see computeThumbnail / computeLumaThumbnail) */
+    public boolean hasChanged(int[] thumbnail) {
+        mFrameCount++;
+
+        float threshold = mThreshold;
+        if (threshold <= 0) {
+            mHasReference = false;
+            return true;
+        }
+
+        if (thumbnail != mThumbnail) {
+            System.arraycopy(thumbnail, 0, mThumbnail, 0, THUMBNAIL_LENGTH);
+        }
+
+        if (mHasReference && (meanAbsoluteDifference() <= threshold)) {
+            mSkippedCount++;
+            return false;
+        }
+
+        System.arraycopy(mThumbnail, 0, mReference, 0, mThumbnail.length);
+        mHasReference = true;
+        return true;
+    }
+
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /** Fraction of the checked frames that were skipped as unchanged */
+    public float getSkipRatio() {
+        return mFrameCount > 0 ? (float) mSkippedCount / mFrameCount : 0;
+    }
+
+    /** Averages the luma of each block of an ARGB frame into a THUMBNAIL_SIZE x THUMBNAIL_SIZE thumbnail */
+    public static void computeThumbnail(int[] pixels, int width, int height, int[] thumbnail) {
+        for (int ty = 0; ty < THUMBNAIL_SIZE; ty++) {
+            int y0 = ty * height / THUMBNAIL_SIZE;
+            int y1 = Math.max(y0 + 1, (ty + 1) * height / THUMBNAIL_SIZE);
+
+            for (int tx = 0; tx < THUMBNAIL_SIZE; tx++) {
+                int x0 = tx * width / THUMBNAIL_SIZE;
+                int x1 = Math.max(x0 + 1, (tx + 1) * width / THUMBNAIL_SIZE);
+
+                int sum = 0;
+                for (int y = y0; y < y1; y++) {
+                    int offset = y * width;
+                    for (int x = x0; x < x1; x++) {
+                        int pixel = pixels[offset + x];
+                        // Integer approximation of the luma (0.299 R + 0.587 G + 0.114 B)
+                        sum += (77 * ((pixel >> 16) & 0xFF) + 150 * ((pixel >> 8) & 0xFF) + 29 * (pixel & 0xFF)) >> 8;
+                    }
+                }
+                thumbnail[ty * THUMBNAIL_SIZE + tx] = sum / ((y1 - y0) * (x1 - x0));
+            }
+        }
+    }
+
+    /**
+     * Same as above, for the luma (Y) plane of a camera frame - only a few pixels of each block are sampled, since
+     * camera frames are much bigger than the thumbnail. Only the center square of the frame is used, rotated by the
+     * given (clockwise) rotation, so the thumbnail covers the same region as the model input (see YuvConverter) and
+     * can be compared with thumbnails of preview bitmaps cropped the same way.
+     */
+    public static void computeLumaThumbnail(ByteBuffer luma, int rowStride, int width, int height, int rotation,
+                                            int[] thumbnail) {
+        final int samples = 4; // Per block dimension
+        final int last = THUMBNAIL_SIZE - 1;
+        rotation = ((rotation % 360) + 360) % 360;
+        int side = Math.min(width, height);
+        int cropX = (width - side) / 2;
+        int cropY = (height - side) / 2;
+
+        for (int ty = 0; ty < THUMBNAIL_SIZE; ty++) {
+            int y0 = ty * side / THUMBNAIL_SIZE;
+            int blockHeight = Math.max(1, (ty + 1) * side / THUMBNAIL_SIZE - y0);
+
+            for (int tx = 0; tx < THUMBNAIL_SIZE; tx++) {
+                int x0 = tx * side / THUMBNAIL_SIZE;
+                int blockWidth = Math.max(1, (tx + 1) * side / THUMBNAIL_SIZE - x0);
+
+                int sum = 0;
+                for (int sy = 0; sy < samples; sy++) {
+                    int offset = (cropY + y0 + sy * blockHeight / samples) * rowStride + cropX + x0;
+                    for (int sx = 0; sx < samples; sx++) {
+                        sum += luma.get(offset + sx * blockWidth / samples) & 0xFF;
+                    }
+                }
+
+                // Where the block ends up once the frame is rotated
+                int index;
+                switch (rotation) {
+                    case 90: index = tx * THUMBNAIL_SIZE + (last - ty); break;
+                    case 180: index = (last - ty) * THUMBNAIL_SIZE + (last - tx); break;
+                    case 270: index = (last - tx) * THUMBNAIL_SIZE + ty; break;
+                    default: index = ty * THUMBNAIL_SIZE + tx; break;
+                }
+                thumbnail[index] = sum / (samples * samples);
+            }
+        }
+    }
+
+    private float meanAbsoluteDifference() {
+        int sum = 0;
+        for (int i = 0; i < mThumbnail.length; i++) {
+            sum += Math.abs(mThumbnail[i] - mReference[i]);
+        }
+        return (float) sum / mThumbnail.length;
+    }
+}
@@ -0,0 +1,95 @@
+package org.inaturalist.inatcamera.classifier;
+
+/**
+ * Smooths the raw model output across frames, using an exponential moving average of the score vectors (with a
+ * half-life in milliseconds, so it doesn't depend on the frame rate). The smoothed scores are what gets aggregated
+ * up the taxonomy, so detections are stable without having to run the classifier more often.
+ *
+ * The half-life and reset threshold can be changed from any thread, but smooth() and reset() must all be called from
+ * the same (classification) thread - each classification stream should have its own smoother.
+ */
+public class ScoreSmoother {
+    private volatile long mHalfLife;
+    private volatile float mResetThreshold;
+
+    /** Running average of the scores (reused), and when it was last updated (-1 = empty) */
+    private float[] mAverage;
+    private long mLastTimestamp = -1;
+
+    /**
+     * @param halfLife how long (in milliseconds) it takes for a frame's weight in the average to halve
+     * @param resetThreshold if the L1 distance between a frame's scores and the average is bigger than this (0..2),
+     *                       the scene is considered to have changed and the average is restarted (0 = never)
+     */
+    public ScoreSmoother(long halfLife, float resetThreshold) {
+        mHalfLife = halfLife;
+        mResetThreshold = resetThreshold;
+    }
+
+    public void setHalfLife(long halfLife) {
+        mHalfLife = halfLife;
+    }
+
+    public long getHalfLife() {
+        return mHalfLife;
+    }
+
+    public void setResetThreshold(float resetThreshold) {
+        mResetThreshold = resetThreshold;
+    }
+
+    public float getResetThreshold() {
+        return mResetThreshold;
+    }
+
+    /** Forgets the previous frames (e.g. when the scene changes) */
+    public void reset() {
+        mLastTimestamp = -1;
+    }
+
+    /**
+     * Adds a frame's scores to the running average.
+     *
+     * @param timestamp when the frame was taken (in milliseconds)
+     * @return the smoothed scores - valid until the next call (the caller must not modify them)
+     */
+    public float[] smooth(float[] scores, long timestamp) {
+        if ((mAverage == null) || (mAverage.length != scores.length)) {
+            mAverage = new float[scores.length];
+            mLastTimestamp = -1;
+        }
+
+        long halfLife = mHalfLife;
+        if ((mLastTimestamp < 0) || (halfLife <= 0) || sceneChanged(scores)) {
+            System.arraycopy(scores, 0, mAverage, 0, scores.length);
+            mLastTimestamp = timestamp;
+            return mAverage;
+        }
+
+        // Weight of the new frame, so that older frames decay by half every half-life
+        long elapsed = Math.max(0, timestamp - mLastTimestamp);
+        float alpha = (float) (1.0 - Math.pow(0.5, (double) elapsed / halfLife));
+        float keep = 1.0f - alpha;
+
+        float[] average = mAverage;
+        for (int i = 0; i < average.length; i++) {
+            average[i] = average[i] * keep + scores[i] * alpha;
+        }
+
+        mLastTimestamp = timestamp;
+        return average;
+    }
+
+    private boolean sceneChanged(float[] scores) {
+        float resetThreshold = mResetThreshold;
+        if (resetThreshold <= 0) return false;
+
+        float distance = 0;
+        float[] average = mAverage;
+        for (int i = 0; i < average.length; i++) {
+            distance += Math.abs(scores[i] - average[i]);
+            if (distance > resetThreshold) return true;
+        }
+        return false;
+    }
+}
@@ -1,36 +1,68 @@
 package org.inaturalist.inatcamera.classifier;
 
-import android.util.Log;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Arrays;
-import java.util.Collections;
 import timber.log.*;
 
 /** Taxonomy data structure */
 public class Taxonomy {
     private static final String TAG = "Taxonomy";
 
-    List<Node> mNodes;
-    Map<String, Node> mNodeByKey;
-    List<Node> mLeaves; // this is a convenience array for testing
-    Node mLifeNode;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String LIFE_KEY = "48460";
+    private static final float LIFE_RANK = 100;
+    private static final String LIFE_NAME = "Life";
+
+    // The nodes, in post-order (see TaxonomyStore). Node objects are only created (and then kept) on demand.
+    TaxonomyStore mStore;
+    private Node[] mNodeViews;
+    int mModelSize;
+
+    // Flattened (post-order) view of the taxonomy tree, used for aggregating scores without
+    // allocating anything per frame. Children always come before their parent, and life is last.
+    int[] mParentIndex; // Index of the parent node (-1 for life)
+    int[] mLeafOutputIndex; // Index into the model output vector (-1 for non-leaf nodes)
+    // DFS interval index: the subtree of node i occupies the contiguous range [mSubtreeStart[i], i]
+    int[] mSubtreeStart;
+    float[] mRankLevels; // Distinct rank levels, from highest to lowest
+    byte[] mRankSlots; // Index into mRankLevels (unsigned), per node
+
+    // Reused top K selection buffers
+    private TopScores[] mTopScores = null;
+    private int[] mSelected = new int[0];
+    float[] mScores; // Reused aggregated scores buffer (one per node)
 
     private Integer mFilterByTaxonId = null; // If null -> no filter by taxon ID defined
     private boolean mNegativeFilter = false;
+    // The filter compiled into a multiplier per model output (0 = filtered out, 1 = kept), or null if there's no filter.
+    // It's never modified once published, so the inference thread can safely use it while the filter props change.
+    private volatile float[] mLeafMask = null;
+    // Serializes filter updates (separately from predict(), so prop updates never wait on inference)
+    private final Object mFilterLock = new Object();
 
     public void setFilterByTaxonId(Integer taxonId) {
         Timber.tag(TAG).d("setFilterByTaxonId: " + taxonId);
-        mFilterByTaxonId = taxonId;
+        synchronized (mFilterLock) {
+            mFilterByTaxonId = taxonId;
+            mLeafMask = compileLeafMask(mFilterByTaxonId, mNegativeFilter);
+        }
     }
 
     public Integer getFilterByTaxonId() {
@@ -39,175 +71,477 @@ public class Taxonomy {
 
     public void setNegativeFilter(boolean negative) {
         Timber.tag(TAG).d("setNegativeFilter: " + negative);
-        mNegativeFilter = negative;
+        synchronized (mFilterLock) {
+            mNegativeFilter = negative;
+            mLeafMask = compileLeafMask(mFilterByTaxonId, mNegativeFilter);
+        }
     }
 
     public boolean getNegativeFilter() {
         return mNegativeFilter;
     }
 
-    Taxonomy(InputStream is) {
-        // Read the taxonomy CSV file into a list of nodes
+    /** Returns the leaf mask compiled from this taxonomy's own filter (or null if there's no filter) */
+    float[] getLeafMask() {
+        return mLeafMask;
+    }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+    /** Compiles a taxon filter into a leaf mask (a multiplier per model output), or null if there's no filter */
+    float[] compileLeafMask(Integer taxonId, boolean negative) {
+        if (taxonId == null) {
+            return null;
+        }
+
+        int filterIndex = mStore.indexOf(taxonId);
+
+        float[] mask = new float[getModelSize()];
+        for (int i = 0; i < mLeafOutputIndex.length; i++) {
+            int leafIndex = mLeafOutputIndex[i];
+            if (leafIndex < 0) continue;
+
+            // Reset current prediction score if:
+            // A) Negative filter + prediction does contain taxon ID as ancestor
+            // B) Non-negative filter + prediction does not contain taxon ID as ancestor
+            boolean containsAncestor = (filterIndex != TaxonomyStore.NO_INDEX) && isDescendant(i, filterIndex);
+            mask[leafIndex] = containsAncestor == negative ? 0.0f : 1.0f;
+        }
+
+        return mask;
+    }
+
+    Taxonomy(InputStream is) throws IOException {
+        setStore(readCsv(is));
+    }
+
+    /** Loads the taxonomy from a CSV file, using (and refreshing) its precompiled binary cache when possible */
+    Taxonomy(File taxonomyFile) throws IOException {
+        File cacheFile = TaxonomyCache.getCacheFile(taxonomyFile);
+
+        long start = System.currentTimeMillis();
+        if (TaxonomyCache.read(this, taxonomyFile, cacheFile)) {
+            Timber.tag(TAG).d("Loaded taxonomy from cache " + cacheFile + " - time: " + (System.currentTimeMillis() - start));
+            return;
+        }
+
+        InputStream is = new FileInputStream(taxonomyFile);
         try {
-            reader.readLine(); // Skip the first line (header line)
-
-            mNodes = new ArrayList<>();
-            mLeaves = new ArrayList<>();
-            for (String line; (line = reader.readLine()) != null; ) {
-                Node node = new Node(line);
-                mNodes.add(node);
-                if ((node.leafId != null) && (node.leafId.length() > 0)) {
-                    mLeaves.add(node);
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+            setStore(readCsv(is));
+        } finally {
+            is.close();
         }
+        Timber.tag(TAG).d("Loaded taxonomy from CSV " + taxonomyFile + " - time: " + (System.currentTimeMillis() - start));
 
-        // Convert list of nodes into a structure with parents and children
-        mNodeByKey = new HashMap<>();
+        TaxonomyCache.write(this, taxonomyFile, cacheFile);
+    }
 
-        mLifeNode = createLifeNode();
+    /** Reads the taxonomy CSV file, and lays out its nodes in post-order into a store */
+    private TaxonomyStore readCsv(InputStream is) throws IOException {
+        List<Node> nodes = new ArrayList<>();
 
-        for (Node node: mNodes) {
-            mNodeByKey.put(node.key, node);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+        // The first line is the header line - it tells us which CSV layout is used
+        boolean oldFormat = Node.isOldFormat(reader.readLine());
+
+        for (String line; (line = reader.readLine()) != null; ) {
+            nodes.add(new Node(line, oldFormat));
         }
 
-        List<Node> lifeList = new ArrayList<Node>();
-        lifeList.add(mLifeNode);
+        return buildStore(nodes);
+    }
 
-        for (Node node: mNodes) {
+    /**
+     * Links the (CSV) nodes into a tree under life, and flattens it in post-order into a store. Taxonomies the store
+     * can't represent - non-numeric taxon or leaf IDs, or taxa whose parent chain never reaches life - are rejected.
+     */
+    private TaxonomyStore buildStore(List<Node> nodes) throws IOException {
+        int lifeLine = nodes.size();
+
+        // The store keeps IDs as ints - a non-numeric ID would silently drop out of the index and the model mapping
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            if (Node.parseTaxonId(node.key) == Node.NO_TAXON_ID) {
+                throw new IOException("Non-numeric taxon ID \"" + node.key + "\" on taxonomy line " + (i + 2));
+            }
+            if ((node.leafId != null) && (node.leafId.length() > 0) && (Node.parseTaxonId(node.leafId) == Node.NO_TAXON_ID)) {
+                throw new IOException("Non-numeric leaf class ID \"" + node.leafId + "\" on taxonomy line " + (i + 2));
+            }
+        }
+
+        Map<String, Integer> lineByKey = new HashMap<>(nodes.size() * 2);
+        for (int i = 0; i < nodes.size(); i++) {
+            lineByKey.put(nodes.get(i).key, i);
+        }
+
+        // Children as linked lists of CSV lines (keeping the CSV order of siblings)
+        int[] firstChild = new int[lifeLine + 1];
+        int[] lastChild = new int[lifeLine + 1];
+        int[] nextSibling = new int[lifeLine + 1];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(nextSibling, -1);
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            Integer parent = null;
             if ((node.parentKey != null) && (node.parentKey.length() > 0)) {
-                Node parent = mNodeByKey.get(node.parentKey);
-                parent.addChild(node);
+                parent = lineByKey.get(node.parentKey);
+                if (parent == null) {
+                    Timber.tag(TAG).w("Unknown parent " + node.parentKey + " of taxon " + node.key + " - adding it under life");
+                }
+            }
+            int parentLine = parent != null ? parent : lifeLine;
+            if (firstChild[parentLine] < 0) {
+                firstChild[parentLine] = i;
             } else {
-                mLifeNode.addChild(node);
+                nextSibling[lastChild[parentLine]] = i;
+            }
+            lastChild[parentLine] = i;
+        }
+
+        int[] order = new int[lifeLine + 1];
+        int count = addPostOrder(lifeLine, firstChild, nextSibling, order, 0);
+        int[] indexByLine = new int[lifeLine + 1];
+        Arrays.fill(indexByLine, -1);
+        for (int i = 0; i < count; i++) {
+            indexByLine[order[i]] = i;
+        }
+
+        // Every line hangs off life, unless its parent keys loop back on themselves (which leaves it out of the tree)
+        for (int line = 0; line < lifeLine; line++) {
+            if (indexByLine[line] < 0) {
+                Node node = nodes.get(line);
+                throw new IOException("Taxon " + node.key + " (taxonomy line " + (line + 2) + ") isn't connected to life - " +
+                        "its parent chain (starting at " + node.parentKey + ") loops back on itself");
+            }
+        }
+
+        int[] taxonIds = new int[count];
+        int[] parentIndex = new int[count];
+        float[] ranks = new float[count];
+        int[] leafIds = new int[count];
+        int[] nameOffsets = new int[count + 1];
+        byte[][] names = new byte[count][];
+        int namesLength = 0;
+
+        for (int i = 0; i < count; i++) {
+            int line = order[i];
+            boolean isLife = line == lifeLine;
+            Node node = isLife ? null : nodes.get(line);
+
+            taxonIds[i] = Node.parseTaxonId(isLife ? LIFE_KEY : node.key);
+            ranks[i] = isLife ? LIFE_RANK : node.rank;
+            leafIds[i] = isLife ? -1 : Node.parseTaxonId(node.leafId);
+
+            String name = isLife ? LIFE_NAME : node.name;
+            names[i] = name != null ? name.getBytes(UTF8) : new byte[0];
+            namesLength += names[i].length;
+        }
+
+        for (int line = 0; line <= lifeLine; line++) {
+            for (int child = firstChild[line]; child >= 0; child = nextSibling[child]) {
+                parentIndex[indexByLine[child]] = indexByLine[line];
+            }
+        }
+        parentIndex[count - 1] = -1;
+
+        byte[] namesBlob = new byte[namesLength];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            nameOffsets[i] = offset;
+            System.arraycopy(names[i], 0, namesBlob, offset, names[i].length);
+            offset += names[i].length;
+        }
+        nameOffsets[count] = offset;
+
+        return new TaxonomyStore(taxonIds, parentIndex, ranks, leafIds, nameOffsets, namesBlob);
+    }
+
+    /** Adds a CSV line and its descendants to the post-order, returning the next free position */
+    private int addPostOrder(int line, int[] firstChild, int[] nextSibling, int[] order, int position) {
+        for (int child = firstChild[line]; child >= 0; child = nextSibling[child]) {
+            position = addPostOrder(child, firstChild, nextSibling, order, position);
+        }
+        order[position] = line;
+        return position + 1;
+    }
+
+    /** Uses a (post-order) node store, and builds the flattened arrays used for predicting from it */
+    void setStore(TaxonomyStore store) {
+        mStore = store;
+        mNodeViews = new Node[store.size()];
+
+        int count = store.size();
+        mParentIndex = store.mParentIndex;
+        mSubtreeStart = store.mSubtreeStart;
+        mRankLevels = store.mRankLevels;
+        mRankSlots = store.mRankSlots;
+
+        // Leaf class IDs are normally only set on leaves, so the store's array is the model output index as is
+        mLeafOutputIndex = store.mLeafIds;
+        for (int i = 0; i < count; i++) {
+            if ((store.mLeafIds[i] >= 0) && store.hasChildren(i)) {
+                mLeafOutputIndex = new int[count];
+                for (int j = 0; j < count; j++) {
+                    mLeafOutputIndex[j] = !store.hasChildren(j) ? store.mLeafIds[j] : -1;
+                }
+                break;
+            }
+        }
+
+        mModelSize = 0;
+        for (int i = 0; i < count; i++) {
+            if ((store.mLeafIds[i] >= 0) && (i != store.getLifeIndex())) {
+                mModelSize++;
             }
         }
 
+        mScores = new float[count];
+    }
+
+    /** Returns the node at a post-order index (creating its view on first use) */
+    synchronized Node getNode(int index) {
+        Node node = mNodeViews[index];
+        if (node == null) {
+            node = createNode(index);
+            mNodeViews[index] = node;
+        }
+        return node;
+    }
+
+    /** Returns the node of a taxon ID (or null if there's none) */
+    public Node getNodeByTaxonId(int taxonId) {
+        int index = mStore.indexOf(taxonId);
+        return index != TaxonomyStore.NO_INDEX ? getNode(index) : null;
     }
 
-    private Node createLifeNode() {
+    @SuppressWarnings("deprecation")
+    private Node createNode(int index) {
+        TaxonomyStore store = mStore;
+
         Node node = new Node();
-        node.key = "48460";
-        node.rank = 100;
-        node.name = "Life";
-        node.parent = null;
+        node.taxonomy = this;
+        node.index = index;
+        node.taxonId = store.mTaxonIds[index];
+        node.key = node.taxonId != Node.NO_TAXON_ID ? Integer.toString(node.taxonId) : "";
+        node.name = store.getName(index);
+        node.rank = store.getRank(index);
+        node.leafId = store.mLeafIds[index] >= 0 ? Integer.toString(store.mLeafIds[index]) : "";
+
+        int parentIndex = store.mParentIndex[index];
+        if (parentIndex < 0) {
+            node.parentKey = null;
+        } else if ((parentIndex == store.getLifeIndex()) || (store.mTaxonIds[parentIndex] == Node.NO_TAXON_ID)) {
+            node.parentKey = "";
+        } else {
+            node.parentKey = Integer.toString(store.mTaxonIds[parentIndex]);
+        }
+        node.ancestorIds = store.getAncestorIds(index);
+        node.parent = parentIndex >= 0 ? getNode(parentIndex) : null;
+        node.children = new ChildNodes(index);
+
         return node;
     }
 
+    /**
+     * The children of a node, as a read-only list whose node views are only created once accessed. The children are
+     * found through the store's subtree intervals, so the list doesn't hold an array of them.
+     */
+    private class ChildNodes extends AbstractList<Node> {
+        private final int mIndex;
+        private final int mSize;
+
+        ChildNodes(int index) {
+            mIndex = index;
+            mSize = mStore.getChildCount(index);
+        }
+
+        @Override
+        public Node get(int i) {
+            if ((i < 0) || (i >= mSize)) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", size: " + mSize);
+            }
+            int child = mStore.getFirstChild(mIndex);
+            for (; i > 0; i--) {
+                child = mStore.getNextSibling(child);
+            }
+            return getNode(child);
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+
+        @Override
+        public Iterator<Node> iterator() {
+            return new Iterator<Node>() {
+                private int mNext = mStore.getFirstChild(mIndex);
+
+                @Override
+                public boolean hasNext() {
+                    return mNext != TaxonomyStore.NO_INDEX;
+                }
+
+                @Override
+                public Node next() {
+                    if (mNext == TaxonomyStore.NO_INDEX) {
+                        throw new NoSuchElementException();
+                    }
+                    Node node = getNode(mNext);
+                    mNext = mStore.getNextSibling(mNext);
+                    return node;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /** Returns whether or not a node is a descendant of (or the same as) another node */
+    boolean isDescendant(int nodeIndex, int ancestorIndex) {
+        return (nodeIndex >= mSubtreeStart[ancestorIndex]) && (nodeIndex <= ancestorIndex);
+    }
+
     public int getModelSize() {
-        return mLeaves.size();
+        return mModelSize;
     }
 
-    public List<Prediction> predict(Map<Integer, Object> outputs) {
+    public synchronized List<Prediction> predict(Map<Integer, Object> outputs) {
         // Get raw predictions
         float[] results = ((float[][]) outputs.get(0))[0];
 
-        Map<String, Float> scores = aggregateScores(results);
-        List<Prediction> bestBranch = buildBestBranchFromScores(scores);
+        ClassificationResult result = new ClassificationResult();
+        predict(results, 0, 0, result);
         
-        return bestBranch;
+        return result.bestBranch;
     }
 
-
-    /** Aggregates scores for nodes, including non-leaf nodes (so each non-leaf node has a score of the sum of all its dependents) */
-    private Map<String, Float> aggregateScores(float[] results) {
-        return aggregateScores(results, mLifeNode);
+    /**
+     * Predicts the best branch, and optionally the top K leaves and the best N candidates of each rank level,
+     * all from a single aggregation pass over the model output. The results are written into the given
+     * (reusable) result object - once its buffers have grown, this doesn't allocate anything.
+     */
+    public void predict(float[] results, int topLeavesCount, int candidatesPerRank, ClassificationResult result) {
+        predict(results, mLeafMask, topLeavesCount, candidatesPerRank, result);
     }
 
-    /** Following: https://github.com/inaturalist/inatVisionAPI/blob/multiclass/inferrers/multi_class_inferrer.py#L136 */
-    private Map<String, Float> aggregateScores(float[] results, Node currentNode) {
-        Map<String, Float> allScores = new HashMap<>();
+    /** Same as above, but filtering with a given leaf mask (see compileLeafMask) instead of the taxonomy's own filter */
+    public synchronized void predict(float[] results, float[] leafMask, int topLeavesCount, int candidatesPerRank, ClassificationResult result) {
+        result.clear();
 
-        if (currentNode.children.size() > 0) {
-            // we'll populate this and return it
+        float[] scores = aggregateScores(results, leafMask);
+        buildBestBranchFromScores(scores, result);
 
-            for (Node child : currentNode.children) {
-                Map<String, Float> childScores = aggregateScores(results, child);
-                allScores.putAll(childScores);
+        if (topLeavesCount > 0) {
+            TopScores top = getTopScores(0, topLeavesCount);
+            for (int i = 0; i < scores.length; i++) {
+                if (mLeafOutputIndex[i] >= 0) {
+                    top.offer(i, scores);
+                }
             }
+            addPredictions(top, scores, result.topLeaves, result);
+        }
 
-            float thisScore = 0.0f;
-            for (Node child : currentNode.children) {
-                thisScore += allScores.get(child.key);
+        if (candidatesPerRank > 0) {
+            for (int slot = 0; slot < mRankLevels.length; slot++) {
+                getTopScores(slot + 1, candidatesPerRank);
             }
-
-            allScores.put(currentNode.key, thisScore);
-
-        } else {
-            // base case, no children
-            boolean resetScore = false;
-
-            if (mFilterByTaxonId != null) {
-                // Filter
-
-                // Reset current prediction score if:
-                // A) Negative filter + prediction does contain taxon ID as ancestor
-                // B) Non-negative filter + prediction does not contain taxon ID as ancestor
-                boolean containsAncestor = hasAncestor(currentNode, mFilterByTaxonId.toString());
-                resetScore = (containsAncestor && mNegativeFilter) || (!containsAncestor && !mNegativeFilter);
+            for (int i = 0; i < scores.length; i++) {
+                mTopScores[(mRankSlots[i] & 0xff) + 1].offer(i, scores);
+            }
+            for (int slot = 0; slot < mRankLevels.length; slot++) {
+                addPredictions(mTopScores[slot + 1], scores, result.getCandidates(mRankLevels, slot), result);
             }
+        } else {
+            result.clearCandidates();
+        }
+    }
 
-            allScores.put(currentNode.key, resetScore ? 0.0f : results[Integer.valueOf(currentNode.leafId)]);
+    /** Returns an empty, reused top scores selector (0 = top leaves; 1..N = best candidates of each rank slot) */
+    private TopScores getTopScores(int index, int capacity) {
+        if (mTopScores == null) {
+            mTopScores = new TopScores[mRankLevels.length + 1];
         }
+        if ((mTopScores[index] == null) || (mTopScores[index].capacity() != capacity)) {
+            mTopScores[index] = new TopScores(capacity);
+        }
+        if (mSelected.length < capacity) {
+            mSelected = new int[capacity];
+        }
+        mTopScores[index].clear();
+        return mTopScores[index];
+    }
 
-        return allScores;
+    private void addPredictions(TopScores top, float[] scores, List<Prediction> predictions, ClassificationResult result) {
+        int count = top.drainSorted(mSelected, scores);
+        for (int i = 0; i < count; i++) {
+            predictions.add(result.obtainPrediction(getNode(mSelected[i]), scores[mSelected[i]]));
+        }
     }
 
-    /** Returns whether or not this taxon node has an ancestor with a specified taxon ID */
-    private boolean hasAncestor(Node node, String taxonId) {
-        if (node.key.equals(taxonId)) {
-            return true;
-        } else if (node.parent != null) {
-            // Climb up the tree
-            return hasAncestor(node.parent, taxonId);
-        } else {
-            // Reach to life node (root node) without finding that taxon ID
-            return false;
+    /**
+     * Aggregates scores for nodes, including non-leaf nodes (so each non-leaf node has a score of the sum of all its dependents).
+     * Following: https://github.com/inaturalist/inatVisionAPI/blob/multiclass/inferrers/multi_class_inferrer.py#L136
+     */
+    float[] aggregateScores(float[] results, float[] mask) {
+        float[] scores = mScores;
+        Arrays.fill(scores, 0.0f);
+
+        // Since nodes are in post-order, all children of a node are summed up before we reach that node
+        for (int i = 0; i < scores.length; i++) {
+            int leafIndex = mLeafOutputIndex[i];
+            if (leafIndex >= 0) {
+                scores[i] = mask != null ? results[leafIndex] * mask[leafIndex] : results[leafIndex];
+            }
+
+            int parentIndex = mParentIndex[i];
+            if (parentIndex >= 0) {
+                scores[parentIndex] += scores[i];
+            }
         }
+
+        return scores;
     }
 
 
     /** Finds the best branch from all result scores */
-    private List<Prediction> buildBestBranchFromScores(Map<String, Float> scores) {
-        List<Prediction> bestBranch = new ArrayList<>();
+    void buildBestBranchFromScores(float[] scores, ClassificationResult result) {
+        List<Prediction> bestBranch = result.bestBranch;
+
+        TaxonomyStore store = mStore;
 
         // Start from life
-        Node currentNode = mLifeNode;
+        int currentIndex = store.getLifeIndex();
 
-        float lifeScore = scores.get(currentNode.key);
-        Prediction lifePrediction = new Prediction(currentNode, lifeScore);
+        float lifeScore = scores[currentIndex];
+        Prediction lifePrediction = result.obtainPrediction(getNode(currentIndex), lifeScore);
         bestBranch.add(lifePrediction);
 
-        List<Node> currentNodeChildren = currentNode.children;
-
         // loop while the last current node (the previous best child node) has more children
-        while (currentNodeChildren.size() > 0) {
+        while (store.hasChildren(currentIndex)) {
             // find the best child of the current node
-            Node bestChild = null;
+            // (children are walked last to first, so ties go to the first child)
+            int bestChild = -1;
             float bestChildScore = -1;
-            for (Node child : currentNodeChildren) {
-                float childScore = scores.get(child.key);
-                if (childScore > bestChildScore) {
+            int subtreeStart = store.mSubtreeStart[currentIndex];
+            for (int child = currentIndex - 1; child >= subtreeStart; child = store.mSubtreeStart[child] - 1) {
+                float childScore = scores[child];
+                if (childScore >= bestChildScore) {
                     bestChildScore = childScore;
                     bestChild = child;
                 }
             }
 
-            if (bestChild != null) {
-                Prediction bestChildPrediction = new Prediction(bestChild, bestChildScore);
-                bestBranch.add(bestChildPrediction);
+            if (bestChild < 0) {
+                break;
             }
 
-            currentNode = bestChild;
-            currentNodeChildren = currentNode.children;
-        }
+            Prediction bestChildPrediction = result.obtainPrediction(getNode(bestChild), bestChildScore);
+            bestBranch.add(bestChildPrediction);
 
-        return bestBranch;
+            currentIndex = bestChild;
+        }
     }
 
 }
-
@@ -0,0 +1,190 @@
+package org.inaturalist.inatcamera.classifier;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import timber.log.*;
+
+/**
+ * Precompiled binary version of the taxonomy CSV file, stored next to it (as "[csv filename].bin").
+ *
+ * The file is memory-mapped and read straight into the taxonomy's flattened (post-order) arrays, so
+ * we don't need to parse and link the CSV lines on every classifier start. It's tied to the size and
+ * modification time of the CSV it was compiled from, and is rebuilt whenever those change.
+ *
+ * Layout (little endian):
+ *   int magic, int version, long source size, long source modification time,
+ *   int node count (N), int names blob length (B),
+ *   int[N] taxon IDs, int[N] parent indices, float[N] rank levels, int[N] leaf class IDs,
+ *   int[N + 1] name offsets, byte[B] UTF-8 names
+ */
+class TaxonomyCache {
+    private static final String TAG = "TaxonomyCache";
+
+    private static final int MAGIC = 0x58544e49; // "INTX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+
+    private static final String CACHE_EXTENSION = ".bin";
+
+    static File getCacheFile(File taxonomyFile) {
+        return new File(taxonomyFile.getPath() + CACHE_EXTENSION);
+    }
+
+    /** Loads the taxonomy from its cache file; returns false if there's no valid, up-to-date cache */
+    static boolean read(Taxonomy taxonomy, File taxonomyFile, File cacheFile) {
+        if (!cacheFile.exists()) {
+            return false;
+        }
+
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(cacheFile, "r");
+            FileChannel channel = file.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.remaining() < HEADER_SIZE) {
+                return false;
+            }
+            if ((buffer.getInt() != MAGIC) || (buffer.getInt() != VERSION)) {
+                Timber.tag(TAG).d("Unknown taxonomy cache format: " + cacheFile);
+                return false;
+            }
+            if ((buffer.getLong() != taxonomyFile.length()) || (buffer.getLong() != taxonomyFile.lastModified())) {
+                Timber.tag(TAG).d("Taxonomy cache is stale: " + cacheFile);
+                return false;
+            }
+
+            int count = buffer.getInt();
+            int namesLength = buffer.getInt();
+            if ((count <= 0) || (namesLength < 0) || (buffer.remaining() != getDataSize(count, namesLength))) {
+                Timber.tag(TAG).w("Taxonomy cache is corrupt: " + cacheFile);
+                return false;
+            }
+
+            int[] keys = new int[count];
+            int[] parentIndex = new int[count];
+            float[] ranks = new float[count];
+            int[] leafIds = new int[count];
+            int[] nameOffsets = new int[count + 1];
+            byte[] names = new byte[namesLength];
+
+            buffer.asIntBuffer().get(keys);
+            buffer.position(buffer.position() + 4 * count);
+            buffer.asIntBuffer().get(parentIndex);
+            buffer.position(buffer.position() + 4 * count);
+            buffer.asFloatBuffer().get(ranks);
+            buffer.position(buffer.position() + 4 * count);
+            buffer.asIntBuffer().get(leafIds);
+            buffer.position(buffer.position() + 4 * count);
+            buffer.asIntBuffer().get(nameOffsets);
+            buffer.position(buffer.position() + 4 * (count + 1));
+            buffer.get(names);
+
+            if (!isValid(parentIndex, nameOffsets, namesLength)) {
+                Timber.tag(TAG).w("Taxonomy cache is corrupt: " + cacheFile);
+                return false;
+            }
+
+            // The cache layout is the same as the store's, so the arrays are used as is
+            taxonomy.setStore(new TaxonomyStore(keys, parentIndex, ranks, leafIds, nameOffsets, names));
+
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Timber.tag(TAG).w("Failed reading taxonomy cache " + cacheFile + ": " + e);
+            return false;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /** Writes the (already loaded and flattened) taxonomy into its cache file. Failures are logged and ignored. */
+    static void write(Taxonomy taxonomy, File taxonomyFile, File cacheFile) {
+        TaxonomyStore store = taxonomy.mStore;
+        int count = store.size();
+        int namesLength = store.mNames.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + getDataSize(count, namesLength));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(taxonomyFile.length());
+        buffer.putLong(taxonomyFile.lastModified());
+        buffer.putInt(count);
+        buffer.putInt(namesLength);
+
+        for (int i = 0; i < count; i++) buffer.putInt(store.mTaxonIds[i]);
+        for (int i = 0; i < count; i++) buffer.putInt(store.mParentIndex[i]);
+        for (int i = 0; i < count; i++) buffer.putFloat(store.getRank(i));
+        for (int i = 0; i < count; i++) buffer.putInt(store.mLeafIds[i]);
+        for (int i = 0; i <= count; i++) buffer.putInt(store.mNameOffsets[i]);
+        buffer.put(store.mNames);
+
+        buffer.flip();
+
+        // Write into a temporary file first, so a partially written cache is never picked up
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(tempFile);
+            FileChannel channel = os.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            os.close();
+            os = null;
+
+            if (!tempFile.renameTo(cacheFile)) {
+                throw new IOException("Failed renaming " + tempFile + " to " + cacheFile);
+            }
+            Timber.tag(TAG).d("Wrote taxonomy cache: " + cacheFile);
+        } catch (IOException e) {
+            // Most likely the taxonomy is in a read-only location - no big deal, we'll just use the CSV next time too
+            Timber.tag(TAG).w("Failed writing taxonomy cache " + cacheFile + ": " + e);
+            tempFile.delete();
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the arrays describe a post-order tree (every parent comes after its children, and only the last
+     * node - life - has no parent) and that the name offsets stay within the names blob.
+     */
+    private static boolean isValid(int[] parentIndex, int[] nameOffsets, int namesLength) {
+        int count = parentIndex.length;
+        for (int i = 0; i < count - 1; i++) {
+            if ((parentIndex[i] <= i) || (parentIndex[i] >= count)) return false;
+        }
+        if (parentIndex[count - 1] != -1) return false;
+
+        if (nameOffsets[0] != 0) return false;
+        for (int i = 0; i < count; i++) {
+            if (nameOffsets[i + 1] < nameOffsets[i]) return false;
+        }
+        return nameOffsets[count] == namesLength;
+    }
+
+    private static int getDataSize(int count, int namesLength) {
+        return (4 * 4 * count) + (4 * (count + 1)) + namesLength;
+    }
+}
@@ -0,0 +1,189 @@
+package org.inaturalist.inatcamera.classifier;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Compact, read-only storage of the taxonomy tree: parallel primitive arrays over the nodes in post-order (children
+ * before their parent, life last), instead of an object (with its own strings and children list) per node.
+ *
+ *   - taxon IDs, parent indices and leaf class IDs, one entry per node
+ *   - rank levels as a byte slot per node into a table of the distinct levels
+ *   - the DFS interval of each subtree: the subtree of node i is [mSubtreeStart[i], i], which also gives the children
+ *     (the last child of node i is i - 1, and each child's previous sibling ends right before the child's subtree)
+ *     without an adjacency array
+ *   - names as a single UTF-8 blob, with the name of node i at [mNameOffsets[i], mNameOffsets[i + 1])
+ *   - the node indices sorted by taxon ID, for looking up taxon IDs with a binary search
+ *
+ * Node objects are only created on demand, as views (see Taxonomy.getNode).
+ */
+class TaxonomyStore {
+    static final int NO_INDEX = -1;
+
+    private static final int MAX_RANK_LEVELS = 256;
+
+    private static final int[] NO_IDS = new int[0];
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    final int[] mTaxonIds; // Node.NO_TAXON_ID for non-numeric keys
+    final int[] mParentIndex; // -1 for life
+    final int[] mLeafIds; // Leaf class ID (model output index), or -1
+    final int[] mNameOffsets;
+    final byte[] mNames;
+
+    final float[] mRankLevels; // Distinct rank levels, from highest to lowest
+    final byte[] mRankSlots; // Index into mRankLevels (unsigned), per node
+
+    final int[] mSubtreeStart;
+
+    // Ancestor taxon IDs (root first) shared by the children of each node (null for nodes without children)
+    private final int[][] mChildAncestorIds;
+
+    // Node indices, sorted by taxon ID
+    private final int[] mIndexByTaxonId;
+
+    TaxonomyStore(int[] taxonIds, int[] parentIndex, float[] ranks, int[] leafIds, int[] nameOffsets, byte[] names) {
+        mTaxonIds = taxonIds;
+        mParentIndex = parentIndex;
+        mLeafIds = leafIds;
+        mNameOffsets = nameOffsets;
+        mNames = names;
+
+        int count = taxonIds.length;
+
+        // Distinct rank levels (used for selecting the best candidates per rank)
+        TreeSet<Float> rankLevels = new TreeSet<>(Collections.reverseOrder());
+        for (float rank : ranks) {
+            rankLevels.add(rank);
+        }
+        if (rankLevels.size() > MAX_RANK_LEVELS) {
+            throw new IllegalArgumentException("Too many distinct rank levels: " + rankLevels.size());
+        }
+        mRankLevels = new float[rankLevels.size()];
+        Map<Float, Integer> slotByRank = new HashMap<>();
+        for (Float rank : rankLevels) {
+            mRankLevels[slotByRank.size()] = rank;
+            slotByRank.put(rank, slotByRank.size());
+        }
+        mRankSlots = new byte[count];
+        for (int i = 0; i < count; i++) {
+            mRankSlots[i] = (byte) (int) slotByRank.get(ranks[i]);
+        }
+
+        // All descendants of a node come right before it in post-order, so each subtree is a contiguous range
+        // that starts at the first descendant of the node
+        mSubtreeStart = new int[count];
+        for (int i = 0; i < count; i++) {
+            mSubtreeStart[i] = i;
+        }
+        for (int i = 0; i < count; i++) {
+            int parent = parentIndex[i];
+            if ((parent >= 0) && (mSubtreeStart[i] < mSubtreeStart[parent])) {
+                mSubtreeStart[parent] = mSubtreeStart[i];
+            }
+        }
+
+        // Parents come after their children in post-order, so a reverse pass always has the parent's IDs ready
+        mChildAncestorIds = new int[count][];
+        for (int i = count - 1; i >= 0; i--) {
+            if (!hasChildren(i)) continue;
+
+            int[] ids = parentIndex[i] >= 0 ? mChildAncestorIds[parentIndex[i]] : NO_IDS;
+            if (taxonIds[i] != Node.NO_TAXON_ID) {
+                ids = Arrays.copyOf(ids, ids.length + 1);
+                ids[ids.length - 1] = taxonIds[i];
+            }
+            mChildAncestorIds[i] = ids;
+        }
+
+        // Taxon ID index, sorted by (taxon ID, node index)
+        long[] pairs = new long[count];
+        for (int i = 0; i < count; i++) {
+            pairs[i] = ((long) taxonIds[i] << 32) | i;
+        }
+        Arrays.sort(pairs);
+        mIndexByTaxonId = new int[count];
+        for (int i = 0; i < count; i++) {
+            mIndexByTaxonId[i] = (int) pairs[i];
+        }
+    }
+
+    int size() {
+        return mTaxonIds.length;
+    }
+
+    int getLifeIndex() {
+        return mTaxonIds.length - 1;
+    }
+
+    float getRank(int index) {
+        return mRankLevels[mRankSlots[index] & 0xff];
+    }
+
+    /** Returns the index of the node with the given taxon ID (the last one, if repeated), or NO_INDEX if there's none */
+    int indexOf(int taxonId) {
+        if (taxonId == Node.NO_TAXON_ID) return NO_INDEX;
+
+        int found = NO_INDEX;
+        int low = 0;
+        int high = mIndexByTaxonId.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int index = mIndexByTaxonId[middle];
+            if (mTaxonIds[index] <= taxonId) {
+                if (mTaxonIds[index] == taxonId) found = index;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    String getName(int index) {
+        return new String(mNames, mNameOffsets[index], mNameOffsets[index + 1] - mNameOffsets[index], UTF8);
+    }
+
+    boolean hasChildren(int index) {
+        return mSubtreeStart[index] < index;
+    }
+
+    int getChildCount(int index) {
+        int count = 0;
+        for (int child = index - 1; child >= mSubtreeStart[index]; child = mSubtreeStart[child] - 1) {
+            count++;
+        }
+        return count;
+    }
+
+    /** Returns the first child of a node (in the original CSV order), or NO_INDEX if it has none */
+    int getFirstChild(int index) {
+        return hasChildren(index) ? getChildContaining(index, mSubtreeStart[index]) : NO_INDEX;
+    }
+
+    /** Returns the next sibling of a node (in the original CSV order), or NO_INDEX if it's the last child */
+    int getNextSibling(int index) {
+        // The next sibling's subtree starts right after the node
+        int parent = mParentIndex[index];
+        return (parent >= 0) && (index + 1 < parent) ? getChildContaining(parent, index + 1) : NO_INDEX;
+    }
+
+    /** Returns the child of a node whose subtree has the given descendant (walking up from the descendant) */
+    private int getChildContaining(int index, int descendant) {
+        while (mParentIndex[descendant] != index) {
+            descendant = mParentIndex[descendant];
+        }
+        return descendant;
+    }
+
+    /** Returns the taxon IDs of the (numeric) ancestors of a node, root first - shared by all of its siblings */
+    int[] getAncestorIds(int index) {
+        int parent = mParentIndex[index];
+        return parent >= 0 ? mChildAncestorIds[parent] : NO_IDS;
+    }
+}
@@ -0,0 +1,72 @@
+package org.inaturalist.inatcamera.classifier;
+
+/**
+ * Bounded min-heap of node indices, ordered by their scores - used to select the top K nodes from a
+ * scores array in a single pass, without sorting the whole array.
+ */
+class TopScores {
+    private final int[] mHeap;
+    private int mSize;
+
+    TopScores(int capacity) {
+        mHeap = new int[capacity];
+    }
+
+    void clear() {
+        mSize = 0;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int capacity() {
+        return mHeap.length;
+    }
+
+    /** Offers a node index; it's kept only if it's one of the top K scores seen so far */
+    void offer(int index, float[] scores) {
+        if (mHeap.length == 0) return;
+
+        if (mSize < mHeap.length) {
+            // Sift up
+            int i = mSize++;
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (scores[mHeap[parent]] <= scores[index]) break;
+                mHeap[i] = mHeap[parent];
+                i = parent;
+            }
+            mHeap[i] = index;
+        } else if (scores[index] > scores[mHeap[0]]) {
+            // Replace the lowest score (the root) and sift down
+            siftDown(index, scores);
+        }
+    }
+
+    /** Empties the heap into an array (which should be at least size() long), highest score first */
+    int drainSorted(int[] out, float[] scores) {
+        int count = mSize;
+        for (int i = count - 1; i >= 0; i--) {
+            out[i] = mHeap[0];
+            int last = mHeap[--mSize];
+            if (mSize > 0) {
+                siftDown(last, scores);
+            }
+        }
+        return count;
+    }
+
+    private void siftDown(int index, float[] scores) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= mSize) break;
+            if ((child + 1 < mSize) && (scores[mHeap[child + 1]] < scores[mHeap[child]])) child++;
+            if (scores[index] <= scores[mHeap[child]]) break;
+            mHeap[i] = mHeap[child];
+            i = child;
+        }
+        mHeap[i] = index;
+    }
+}
@@ -0,0 +1,182 @@
+package org.inaturalist.inatcamera.classifier;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Converts YUV_420_888 camera frames (as Y/U/V planes with arbitrary row/pixel strides) into model input, in a
+ * single fixed-point pass: the frame is center-cropped to a square, rotated (by 0/90/180/270 degrees clockwise),
+ * resized to the output size (bilinear luma, nearest chroma - which is at half resolution anyway), converted to RGB
+ * and normalized through a per-channel-value lookup table. No intermediate bitmaps are created.
+ *
+ * Has no Android dependencies. Not thread safe - it keeps reusable row buffers and sampling tables.
+ */
+public class YuvConverter {
+    /** Fractional bits of the fixed-point sampling positions */
+    private static final int FRACTION_BITS = 8;
+    private static final int ONE = 1 << FRACTION_BITS;
+
+    private final int mOutputWidth;
+    private final int mOutputHeight;
+
+    /** RGB values of the current output row */
+    private final int[] mRgbRow;
+    private final float[] mFloatRow;
+    private final byte[] mByteRow;
+
+    /**
+     * Sampling positions (fixed point, in sensor coordinates) for each output column and row, for the frame
+     * geometry they were computed for.
+     */
+    private final int[] mColumnPositions;
+    private final int[] mRowPositions;
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private int mRotation = -1;
+
+    public YuvConverter(int outputWidth, int outputHeight) {
+        mOutputWidth = outputWidth;
+        mOutputHeight = outputHeight;
+        mRgbRow = new int[outputWidth * 3];
+        mFloatRow = new float[outputWidth * 3];
+        mByteRow = new byte[outputWidth * 3];
+        mColumnPositions = new int[outputWidth];
+        mRowPositions = new int[outputHeight];
+    }
+
+    /**
+     * Converts a frame into float model input.
+     *
+     * @param values the normalized value of each channel value (0..255), e.g. (value - mean) / std
+     */
+    public void convert(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                        int yRowStride, int uvRowStride, int uvPixelStride,
+                        int width, int height, int rotation, float[] values, FloatBuffer output) {
+        int[] rgb = mRgbRow;
+        float[] row = mFloatRow;
+        prepare(width, height, rotation);
+        for (int y = 0; y < mOutputHeight; y++) {
+            convertRow(y, yPlane, uPlane, vPlane, yRowStride, uvRowStride, uvPixelStride);
+            for (int i = 0; i < row.length; i++) {
+                row[i] = values[rgb[i]];
+            }
+            output.put(row);
+        }
+    }
+
+    /**
+     * Converts a frame into quantized (8-bit) model input.
+     *
+     * @param values the quantized value of each channel value (0..255)
+     */
+    public void convert(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                        int yRowStride, int uvRowStride, int uvPixelStride,
+                        int width, int height, int rotation, byte[] values, ByteBuffer output) {
+        int[] rgb = mRgbRow;
+        byte[] row = mByteRow;
+        prepare(width, height, rotation);
+        for (int y = 0; y < mOutputHeight; y++) {
+            convertRow(y, yPlane, uPlane, vPlane, yRowStride, uvRowStride, uvPixelStride);
+            for (int i = 0; i < row.length; i++) {
+                row[i] = values[rgb[i]];
+            }
+            output.put(row);
+        }
+    }
+
+    /** Samples a single output row into mRgbRow */
+    private void convertRow(int outputY, ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane,
+                            int yRowStride, int uvRowStride, int uvPixelStride) {
+        // With a 90/270 rotation, output columns go along the sensor's Y axis (and output rows along its X axis)
+        boolean transposed = (mRotation == 90) || (mRotation == 270);
+        int rowPosition = mRowPositions[outputY];
+        int[] columnPositions = mColumnPositions;
+        int[] rgb = mRgbRow;
+        int maxX = mWidth - 1;
+        int maxY = mHeight - 1;
+
+        int value = 0;
+        for (int outputX = 0; outputX < mOutputWidth; outputX++) {
+            int sx, sy;
+            if (transposed) {
+                sx = rowPosition;
+                sy = columnPositions[outputX];
+            } else {
+                sx = columnPositions[outputX];
+                sy = rowPosition;
+            }
+
+            int x0 = sx >> FRACTION_BITS;
+            int y0 = sy >> FRACTION_BITS;
+            int fx = sx & (ONE - 1);
+            int fy = sy & (ONE - 1);
+            int x1 = x0 < maxX ? x0 + 1 : x0;
+            int offset0 = y0 * yRowStride;
+            int offset1 = (y0 < maxY ? y0 + 1 : y0) * yRowStride;
+
+            // Bilinear luma
+            int top = (yPlane.get(offset0 + x0) & 0xFF) * (ONE - fx) + (yPlane.get(offset0 + x1) & 0xFF) * fx;
+            int bottom = (yPlane.get(offset1 + x0) & 0xFF) * (ONE - fx) + (yPlane.get(offset1 + x1) & 0xFF) * fx;
+            int luma = (top * (ONE - fy) + bottom * fy + (1 << (2 * FRACTION_BITS - 1))) >> (2 * FRACTION_BITS);
+
+            // Nearest chroma (of the nearest luma pixel)
+            int cx = (sx + ONE / 2) >> FRACTION_BITS;
+            int cy = (sy + ONE / 2) >> FRACTION_BITS;
+            if (cx > maxX) cx = maxX;
+            if (cy > maxY) cy = maxY;
+            int uvOffset = (cy >> 1) * uvRowStride + (cx >> 1) * uvPixelStride;
+            int u = (uPlane.get(uvOffset) & 0xFF) - 128;
+            int v = (vPlane.get(uvOffset) & 0xFF) - 128;
+
+            // BT.601 (full range) YUV to RGB, with 8-bit fixed-point coefficients
+            rgb[value++] = clamp(luma + ((359 * v + 128) >> 8));
+            rgb[value++] = clamp(luma - ((88 * u + 183 * v + 128) >> 8));
+            rgb[value++] = clamp(luma + ((454 * u + 128) >> 8));
+        }
+    }
+
+    /** Makes sure the sampling positions match the frame geometry */
+    private void prepare(int width, int height, int rotation) {
+        rotation = ((rotation % 360) + 360) % 360;
+        if ((width != mWidth) || (height != mHeight) || (rotation != mRotation)) {
+            computePositions(width, height, rotation);
+        }
+    }
+
+    /** Computes the sampling positions of the output columns and rows, for the given frame geometry */
+    private void computePositions(int width, int height, int rotation) {
+        int side = Math.min(width, height);
+        int cropX = (width - side) / 2;
+        int cropY = (height - side) / 2;
+        boolean transposed = (rotation == 90) || (rotation == 270);
+
+        // Which output axes run backwards along the sensor axis they map to
+        boolean flipColumns = (rotation == 90) || (rotation == 180);
+        boolean flipRows = (rotation == 180) || (rotation == 270);
+
+        computeAxisPositions(mColumnPositions, side, flipColumns, transposed ? cropY : cropX);
+        computeAxisPositions(mRowPositions, side, flipRows, transposed ? cropX : cropY);
+
+        mWidth = width;
+        mHeight = height;
+        mRotation = rotation;
+    }
+
+    /** Centers of the output pixels along an axis, mapped (fixed point) into the cropped square of the frame */
+    private static void computeAxisPositions(int[] positions, int side, boolean flip, int offset) {
+        int count = positions.length;
+        long max = (long) (side - 1) << FRACTION_BITS;
+
+        for (int i = 0; i < count; i++) {
+            long position = (((2L * i + 1) * side << FRACTION_BITS) / (2L * count)) - ONE / 2;
+            if (position < 0) position = 0;
+            if (position > max) position = max;
+            if (flip) position = max - position;
+            positions[i] = (int) (position + ((long) offset << FRACTION_BITS));
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,26 @@
+package org.inaturalist.inatcamera.nativecamera;
+
+import android.graphics.Bitmap;
+
+import org.inaturalist.inatcamera.classifier.ModelInput;
+import org.inaturalist.inatcamera.classifier.SceneChangeDetector;
+
+/**
+ * A frame on its way from the camera to the classifier - either a camera frame already converted into a model
+ * input, or (when camera frames aren't available) a bitmap grabbed from the preview view. Frames are pooled.
+ */
+class AnalysisFrame {
+    /** The converted model input (null for preview bitmaps) */
+    final ModelInput input;
+
+    /** A bitmap grabbed from the preview (null for converted camera frames) */
+    Bitmap bitmap;
+
+    /** Luma thumbnail of the frame, for scene-change detection (filled in only when detection is enabled) */
+    final int[] thumbnail = new int[SceneChangeDetector.THUMBNAIL_LENGTH];
+    boolean hasThumbnail;
+
+    AnalysisFrame(ModelInput input) {
+        this.input = input;
+    }
+}
@@ -0,0 +1,102 @@
+package org.inaturalist.inatcamera.nativecamera;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free run state of the live classifier. The lifecycle side (pause / resume / close) only flips the state and
+ * returns immediately, even while a frame is being classified; the inference side checks the state cooperatively
+ * (isCancelled) and, if the view was closed mid-classification, is the one to release the classifier.
+ *
+ * States: idle (active, not classifying), running (classifying a frame), paused, closing (closed while
+ * classifying) and closed.
+ */
+class ClassifierRunState {
+    private static final int ACTIVE = 0;
+    private static final int PAUSED = 1;
+    private static final int CLOSED = 2;
+    private static final int LIFECYCLE_MASK = 3;
+
+    /** Set while a frame is being classified (on top of the lifecycle state) */
+    private static final int RUNNING = 4;
+
+    private final AtomicInteger mState = new AtomicInteger(PAUSED);
+
+    /** Lets frames be classified (unless closed) */
+    void resume() {
+        setLifecycle(ACTIVE);
+    }
+
+    /** Stops classifying frames - a frame that's being classified is cancelled */
+    void pause() {
+        setLifecycle(PAUSED);
+    }
+
+    /**
+     * Stops classifying frames for good.
+     *
+     * @return true if the classifier can be released right away, false if a frame is still being classified (the
+     *         inference side then releases it - see finish())
+     */
+    boolean close() {
+        while (true) {
+            int state = mState.get();
+            if ((state & LIFECYCLE_MASK) == CLOSED) return false;
+            if (mState.compareAndSet(state, CLOSED | (state & RUNNING))) {
+                return (state & RUNNING) == 0;
+            }
+        }
+    }
+
+    boolean isActive() {
+        return (mState.get() & LIFECYCLE_MASK) == ACTIVE;
+    }
+
+    boolean isClosed() {
+        return (mState.get() & LIFECYCLE_MASK) == CLOSED;
+    }
+
+    /** Called by the inference side before classifying a frame - returns false if it shouldn't */
+    boolean tryStart() {
+        return mState.compareAndSet(ACTIVE, ACTIVE | RUNNING);
+    }
+
+    /** Whether the frame being classified should be discarded (paused / closed since it was started) */
+    boolean isCancelled() {
+        return (mState.get() & LIFECYCLE_MASK) != ACTIVE;
+    }
+
+    /**
+     * Called by the inference side once done with a frame.
+     *
+     * @return true if the view was closed in the meantime (the caller must release the classifier)
+     */
+    boolean finish() {
+        while (true) {
+            int state = mState.get();
+            if (mState.compareAndSet(state, state & ~RUNNING)) {
+                return (state & LIFECYCLE_MASK) == CLOSED;
+            }
+        }
+    }
+
+    private void setLifecycle(int lifecycle) {
+        while (true) {
+            int state = mState.get();
+            if ((state & LIFECYCLE_MASK) == CLOSED) return;
+            if (mState.compareAndSet(state, lifecycle | (state & RUNNING))) return;
+        }
+    }
+
+    @Override
+    public String toString() {
+        int state = mState.get();
+        switch (state & LIFECYCLE_MASK) {
+            case ACTIVE:
+                return (state & RUNNING) != 0 ? "running" : "idle";
+            case PAUSED:
+                return "paused";
+            default:
+                return (state & RUNNING) != 0 ? "closing" : "closed";
+        }
+    }
+}
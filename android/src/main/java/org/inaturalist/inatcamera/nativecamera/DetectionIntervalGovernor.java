@@ -0,0 +1,103 @@
+package org.inaturalist.inatcamera.nativecamera;
+
+/**
+ * Decides how often to classify live frames. With a target duty cycle, the interval adapts to how long
+ * classification takes on this device (e.g. a duty cycle of 0.25 and a 200 ms classification = 800 ms interval),
+ * bound by a minimal and maximal interval; in battery saver mode, the duty cycle is halved. Without a target duty
+ * cycle, the fixed interval is used as is.
+ *
+ * Has no Android dependencies (time comes from the given clock), so it can be tested on the JVM.
+ */
+public class DetectionIntervalGovernor {
+
+    /** Source of the current time, in milliseconds. */
+    public interface Clock {
+        long uptimeMillis();
+    }
+
+    public static final float DEFAULT_TARGET_DUTY_CYCLE = 0.0f;
+    public static final int DEFAULT_MIN_INTERVAL = 250;
+    public static final int DEFAULT_MAX_INTERVAL = 5000;
+
+    /** Weight of the latest latency in the rolling average */
+    private static final float LATENCY_SMOOTHING = 0.2f;
+
+    private final Clock mClock;
+
+    private volatile int mFixedInterval;
+    private volatile float mTargetDutyCycle = DEFAULT_TARGET_DUTY_CYCLE;
+    private volatile int mMinInterval = DEFAULT_MIN_INTERVAL;
+    private volatile int mMaxInterval = DEFAULT_MAX_INTERVAL;
+    private volatile boolean mPowerSaveMode = false;
+
+    /** Rolling average of the classification latency (-1 = nothing measured yet) */
+    private volatile float mAverageLatency = -1;
+    private volatile long mLastRunTime = 0;
+
+    public DetectionIntervalGovernor(Clock clock, int fixedInterval) {
+        mClock = clock;
+        mFixedInterval = fixedInterval;
+    }
+
+    public void setFixedInterval(int interval) {
+        mFixedInterval = interval;
+    }
+
+    /** Fraction of the time to spend classifying (0 = use the fixed interval) */
+    public void setTargetDutyCycle(float dutyCycle) {
+        mTargetDutyCycle = dutyCycle;
+    }
+
+    public void setMinInterval(int interval) {
+        mMinInterval = interval;
+    }
+
+    public void setMaxInterval(int interval) {
+        mMaxInterval = interval;
+    }
+
+    public void setPowerSaveMode(boolean powerSaveMode) {
+        mPowerSaveMode = powerSaveMode;
+    }
+
+    public boolean isPowerSaveMode() {
+        return mPowerSaveMode;
+    }
+
+    /** Records how long classifying a frame took (in milliseconds) */
+    public void recordLatency(long latency) {
+        float average = mAverageLatency;
+        mAverageLatency = average < 0 ? latency : average + (latency - average) * LATENCY_SMOOTHING;
+    }
+
+    public float getAverageLatency() {
+        return Math.max(0, mAverageLatency);
+    }
+
+    /** Returns the current interval between classifications (in milliseconds) */
+    public int getInterval() {
+        float dutyCycle = mTargetDutyCycle;
+        float latency = mAverageLatency;
+        if ((dutyCycle <= 0) || (latency < 0)) {
+            return mFixedInterval;
+        }
+
+        if (mPowerSaveMode) {
+            dutyCycle /= 2;
+        }
+
+        int interval = (int) Math.min(Integer.MAX_VALUE, latency / Math.min(dutyCycle, 1.0f));
+        return Math.max(mMinInterval, Math.min(mMaxInterval, interval));
+    }
+
+    /** Returns how long to wait before the next classification (in milliseconds) */
+    public long getDelay() {
+        long timePassed = mClock.uptimeMillis() - mLastRunTime;
+        return Math.max(0, getInterval() - timePassed);
+    }
+
+    /** Marks the time a classification round ended (the next delay is measured from it) */
+    public void onRun() {
+        mLastRunTime = mClock.uptimeMillis();
+    }
+}
@@ -0,0 +1,42 @@
+package org.inaturalist.inatcamera.nativecamera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Single-slot, latest-wins hand-off of frames from a producer thread to a consumer thread: posting a frame replaces
+ * the one waiting (if it wasn't taken yet), so the consumer always gets the newest frame and never falls behind.
+ */
+class FrameMailbox<T> {
+    private final AtomicReference<T> mSlot = new AtomicReference<>();
+    private final AtomicLong mPostedCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    /**
+     * Posts a frame.
+     *
+     * @return the frame it replaced (dropped without ever being taken - the caller can recycle it), or null if the
+     *         mailbox was empty (the consumer should be notified)
+     */
+    T post(T frame) {
+        mPostedCount.incrementAndGet();
+        T previous = mSlot.getAndSet(frame);
+        if (previous != null) {
+            mDroppedCount.incrementAndGet();
+        }
+        return previous;
+    }
+
+    /** Takes the waiting frame (or null if there's none) */
+    T take() {
+        return mSlot.getAndSet(null);
+    }
+
+    long getPostedCount() {
+        return mPostedCount.get();
+    }
+
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+}
@@ -3,9 +3,15 @@ package org.inaturalist.inatcamera.nativecamera;
 import android.annotation.SuppressLint;
 import android.util.Log;
 
+import org.inaturalist.inatcamera.classifier.ClassificationResult;
+import org.inaturalist.inatcamera.classifier.ClassifierRegistry;
 import org.inaturalist.inatcamera.classifier.ImageClassifier;
 import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.SystemClock;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
 import java.util.List;
 import java.io.IOException;
 import android.os.Environment;
@@ -22,11 +28,13 @@ import com.facebook.react.uimanager.UIManagerModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.Promise;
 import android.graphics.BitmapFactory;
 import org.inaturalist.inatcamera.classifier.Prediction;
 import timber.log.*;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 public class INatCameraModule extends ReactContextBaseJavaModule {
     private static final String TAG = "INatCameraModule";
@@ -34,6 +42,16 @@ public class INatCameraModule extends ReactContextBaseJavaModule {
     public static final String OPTION_URI = "uri";
     public static final String OPTION_TAXONOMY_FILENAME = "taxonomyFilename";
     public static final String OPTION_MODEL_FILENAME = "modelFilename";
+    public static final String OPTION_TOP_PREDICTIONS_COUNT = "topPredictionsCount";
+    public static final String OPTION_CANDIDATES_PER_RANK = "candidatesPerRank";
+    public static final String OPTION_NUM_THREADS = "numThreads";
+    public static final String OPTION_USE_XNNPACK = "useXNNPack";
+    public static final String OPTION_URIS = "uris";
+    public static final String OPTION_BATCH_SIZE = "batchSize";
+    public static final String OPTION_BATCH_ID = "batchId";
+
+    /** Emitted (to DeviceEventEmitter) for each image classified by getPredictionsForImages */
+    public static final String EVENT_BATCH_PREDICTION = "INatCameraBatchPrediction";
 
     private ReactApplicationContext mContext;
 
@@ -107,6 +125,23 @@ public class INatCameraModule extends ReactContextBaseJavaModule {
         });
     }
 
+    @ReactMethod
+    public void getStatistics(final int viewTag, final Promise promise) {
+        final ReactApplicationContext context = getReactApplicationContext();
+        UIManagerModule uiManager = context.getNativeModule(UIManagerModule.class);
+        uiManager.addUIBlock(new UIBlock() {
+            @Override
+            public void execute(NativeViewHierarchyManager nativeViewHierarchyManager) {
+                RNCameraView cameraView = (RNCameraView) nativeViewHierarchyManager.resolveView(viewTag);
+                try {
+                    promise.resolve(cameraView.getStatistics());
+                } catch (Exception e) {
+                    promise.reject("getStatistics: Expected a Camera component");
+                }
+            }
+        });
+    }
+
     @ReactMethod
     public void getPredictionsForImage(ReadableMap options, Promise promise) {
 
@@ -118,11 +153,16 @@ public class INatCameraModule extends ReactContextBaseJavaModule {
         String uri = options.getString(OPTION_URI);
         String modelFilename = options.getString(OPTION_MODEL_FILENAME);
         String taxonomyFilename = options.getString(OPTION_TAXONOMY_FILENAME);
+        int topPredictionsCount = options.hasKey(OPTION_TOP_PREDICTIONS_COUNT) ? options.getInt(OPTION_TOP_PREDICTIONS_COUNT) : 0;
+        int candidatesPerRank = options.hasKey(OPTION_CANDIDATES_PER_RANK) ? options.getInt(OPTION_CANDIDATES_PER_RANK) : 0;
+        int numThreads = options.hasKey(OPTION_NUM_THREADS) ? options.getInt(OPTION_NUM_THREADS) : ImageClassifier.DEFAULT_NUM_THREADS;
+        boolean useXNNPack = options.hasKey(OPTION_USE_XNNPACK) ? options.getBoolean(OPTION_USE_XNNPACK) : ImageClassifier.DEFAULT_USE_XNNPACK;
 
         ImageClassifier classifier = null;
 
         try {
-            classifier = new ImageClassifier(modelFilename, taxonomyFilename);
+            // Shared with the live camera / previous calls, so the model and taxonomy are only loaded once
+            classifier = ClassifierRegistry.acquire(modelFilename, taxonomyFilename, numThreads, useXNNPack);
         } catch (IOException e) {
             e.printStackTrace();
             promise.reject("E_CLASSIFIER", "Failed to initialize an image mClassifier: " + e.getMessage());
@@ -139,36 +179,42 @@ public class INatCameraModule extends ReactContextBaseJavaModule {
             return;
         }
 
+        try {
+            classifyImage(classifier, uri, topPredictionsCount, candidatesPerRank, promise);
+        } finally {
+            ClassifierRegistry.release(classifier);
+        }
+    }
+
+    private void classifyImage(ImageClassifier classifier, String uri, int topPredictionsCount, int candidatesPerRank, Promise promise) {
         // Get predictions for that image
         Bitmap bitmap = null;
 
         try {
-            // Read bitmap file
-            bitmap = BitmapFactory.decodeFile(uri);
-            // Resize to expected classifier input size
-            Bitmap rescaledBitmap = Bitmap.createScaledBitmap(
-                    bitmap,
-                    ImageClassifier.DIM_IMG_SIZE_X,
-                    ImageClassifier.DIM_IMG_SIZE_Y,
-                    false);
-            bitmap.recycle();
-            bitmap = rescaledBitmap;
+            bitmap = readImage(uri);
         } catch (Exception e) {
             e.printStackTrace();
             promise.reject("E_IO_EXCEPTION", "Couldn't read input file: " + uri + "; Exception: " + e);
             return;
         }
 
-        List<Prediction> predictions = classifier.classifyFrame(bitmap);
+        // No filtering of the one-shot predictions (null leaf mask)
+        ClassificationResult classification = new ClassificationResult();
+        boolean classified = classifier.classifyFrame(bitmap, null, topPredictionsCount, candidatesPerRank, classification);
         bitmap.recycle();
 
+        if (!classified) {
+            promise.reject("E_CLASSIFIER", "Failed to classify image: " + uri);
+            return;
+        }
+
         // Return both photo URI and predictions
 
         WritableMap result = Arguments.createMap();
 
         WritableArray results = Arguments.createArray();
 
-        for (Prediction prediction : predictions) {
+        for (Prediction prediction : classification.bestBranch) {
             WritableMap map = RNCameraView.nodeToMap(prediction);
             if (map == null) continue;
 
@@ -176,9 +222,236 @@ public class INatCameraModule extends ReactContextBaseJavaModule {
         }
 
         result.putArray("predictions", results);
+        RNCameraView.putRankedPredictions(result, classification);
 
         promise.resolve(result);
     }
 
+    /**
+     * Reads an image (a file path, or a file:// / content:// URI), resized to the classifier input size. The image is
+     * subsampled while decoding, so memory use stays proportional to the classifier input size and not to the
+     * size of the photo.
+     */
+    private Bitmap readImage(String uri) throws IOException {
+        // Read the image size only
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream inputStream = openImage(uri);
+        try {
+            BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            inputStream.close();
+        }
+
+        if ((options.outWidth <= 0) || (options.outHeight <= 0)) {
+            throw new IOException("Couldn't decode image: " + uri);
+        }
+
+        // Decode at the smallest power-of-two subsample that's still at least the classifier input size
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                ImageClassifier.DIM_IMG_SIZE_X, ImageClassifier.DIM_IMG_SIZE_Y);
+
+        Bitmap bitmap;
+        inputStream = openImage(uri);
+        try {
+            bitmap = BitmapFactory.decodeStream(inputStream, null, options);
+        } finally {
+            inputStream.close();
+        }
+
+        if (bitmap == null) {
+            throw new IOException("Couldn't decode image: " + uri);
+        }
+
+        // Resize to expected classifier input size
+        Bitmap rescaledBitmap = Bitmap.createScaledBitmap(
+                bitmap,
+                ImageClassifier.DIM_IMG_SIZE_X,
+                ImageClassifier.DIM_IMG_SIZE_Y,
+                false);
+        if (rescaledBitmap != bitmap) {
+            bitmap.recycle();
+        }
+        return rescaledBitmap;
+    }
+
+    private InputStream openImage(String uri) throws IOException {
+        if (uri.startsWith("content://") || uri.startsWith("file://") || uri.startsWith("android.resource://")) {
+            InputStream inputStream = mContext.getContentResolver().openInputStream(Uri.parse(uri));
+            if (inputStream == null) {
+                throw new IOException("Couldn't open image: " + uri);
+            }
+            return inputStream;
+        }
+
+        return new FileInputStream(uri);
+    }
+
+    /** Returns the largest power of two the image can be subsampled by, while still being at least the required size */
+    static int calculateInSampleSize(int width, int height, int requiredWidth, int requiredHeight) {
+        int inSampleSize = 1;
+        while ((width / (inSampleSize * 2) >= requiredWidth) && (height / (inSampleSize * 2) >= requiredHeight)) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Classifies a list of images, several images per inference run. Each image's predictions are emitted as an
+     * EVENT_BATCH_PREDICTION event as soon as they're ready, and the promise is resolved with a summary once
+     * all images were classified.
+     */
+    @ReactMethod
+    public void getPredictionsForImages(ReadableMap options, final Promise promise) {
+
+        if (!options.hasKey(OPTION_URIS) || !options.hasKey(OPTION_MODEL_FILENAME) || !options.hasKey(OPTION_TAXONOMY_FILENAME)) {
+            promise.reject("E_MISSING_ARGS", String.format("Missing one or more arguments: %s, %s, %s", OPTION_URIS, OPTION_MODEL_FILENAME, OPTION_TAXONOMY_FILENAME));
+            return;
+        }
+
+        ReadableArray uriArray = options.getArray(OPTION_URIS);
+        final String[] uris = new String[uriArray.size()];
+        for (int i = 0; i < uris.length; i++) {
+            uris[i] = uriArray.getString(i);
+        }
+        final String modelFilename = options.getString(OPTION_MODEL_FILENAME);
+        final String taxonomyFilename = options.getString(OPTION_TAXONOMY_FILENAME);
+        final String batchId = options.hasKey(OPTION_BATCH_ID) ? options.getString(OPTION_BATCH_ID) : null;
+        final int batchSize = Math.max(1, Math.min(ImageClassifier.MAX_BATCH_SIZE,
+                options.hasKey(OPTION_BATCH_SIZE) ? options.getInt(OPTION_BATCH_SIZE) : ImageClassifier.DEFAULT_BATCH_SIZE));
+        final int topPredictionsCount = options.hasKey(OPTION_TOP_PREDICTIONS_COUNT) ? options.getInt(OPTION_TOP_PREDICTIONS_COUNT) : 0;
+        final int candidatesPerRank = options.hasKey(OPTION_CANDIDATES_PER_RANK) ? options.getInt(OPTION_CANDIDATES_PER_RANK) : 0;
+        final int numThreads = options.hasKey(OPTION_NUM_THREADS) ? options.getInt(OPTION_NUM_THREADS) : ImageClassifier.DEFAULT_NUM_THREADS;
+        final boolean useXNNPack = options.hasKey(OPTION_USE_XNNPACK) ? options.getBoolean(OPTION_USE_XNNPACK) : ImageClassifier.DEFAULT_USE_XNNPACK;
+
+        // Classifying many images can take a while - don't block the native modules thread
+        new Thread(new Runnable() {
+            public void run() {
+                ImageClassifier classifier = null;
+
+                try {
+                    classifier = ClassifierRegistry.acquire(modelFilename, taxonomyFilename, numThreads, useXNNPack);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    promise.reject("E_CLASSIFIER", "Failed to initialize an image mClassifier: " + e.getMessage());
+                    return;
+                } catch (OutOfMemoryError e) {
+                    e.printStackTrace();
+                    Timber.tag(TAG).w("Out of memory - Device not supported - classifier failed to load - " + e);
+                    promise.reject("E_OUT_OF_MEMORY", "Out of memory");
+                    return;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    Timber.tag(TAG).w("Other type of exception - Device not supported - classifier failed to load - " + e);
+                    promise.reject("E_UNSUPPORTED_DEVICE", "Android version is too old - needs to be at least 6.0");
+                    return;
+                }
+
+                try {
+                    classifyImages(classifier, uris, batchId, batchSize, topPredictionsCount, candidatesPerRank, promise);
+                } finally {
+                    ClassifierRegistry.release(classifier);
+                }
+            }
+        }).start();
+    }
+
+    private void classifyImages(ImageClassifier classifier, String[] uris, String batchId, int batchSize,
+                                int topPredictionsCount, int candidatesPerRank, Promise promise) {
+        Bitmap[] bitmaps = new Bitmap[batchSize];
+        int[] indices = new int[batchSize]; // Index (in uris) of each bitmap in the current batch
+        ClassificationResult[] classifications = new ClassificationResult[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            classifications[i] = new ClassificationResult();
+        }
+
+        long startTime = SystemClock.uptimeMillis();
+        int classifiedCount = 0;
+        int failedCount = 0;
+        int next = 0;
+
+        while (next < uris.length) {
+            // Read the next batch of images (images that fail to load are reported right away)
+            int count = 0;
+            while ((count < batchSize) && (next < uris.length)) {
+                try {
+                    bitmaps[count] = readImage(uris[next]);
+                    indices[count] = next;
+                    count++;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    emitBatchError(batchId, next, uris[next], "Couldn't read input file: " + uris[next] + "; Exception: " + e);
+                    failedCount++;
+                }
+                next++;
+            }
+
+            if (count == 0) continue;
+
+            boolean classified = classifier.classifyBatch(bitmaps, count, null, topPredictionsCount, candidatesPerRank, classifications);
+
+            for (int i = 0; i < count; i++) {
+                bitmaps[i].recycle();
+                bitmaps[i] = null;
+
+                String uri = uris[indices[i]];
+                if (!classified) {
+                    emitBatchError(batchId, indices[i], uri, "Failed to classify image: " + uri);
+                    failedCount++;
+                    continue;
+                }
+
+                WritableMap event = createBatchEvent(batchId, indices[i], uri);
+                WritableArray results = Arguments.createArray();
+                for (Prediction prediction : classifications[i].bestBranch) {
+                    WritableMap map = RNCameraView.nodeToMap(prediction);
+                    if (map == null) continue;
+
+                    results.pushMap(map);
+                }
+                event.putArray("predictions", results);
+                RNCameraView.putRankedPredictions(event, classifications[i]);
+                emitBatchEvent(event);
+                classifiedCount++;
+            }
+        }
+
+        long totalTime = SystemClock.uptimeMillis() - startTime;
+        Timber.tag(TAG).d("getPredictionsForImages - " + uris.length + " images in " + totalTime + " ms (batch size: " + batchSize + ")");
+
+        WritableMap summary = Arguments.createMap();
+        if (batchId != null) summary.putString(OPTION_BATCH_ID, batchId);
+        summary.putInt("count", uris.length);
+        summary.putInt("classified", classifiedCount);
+        summary.putInt("failed", failedCount);
+        summary.putInt("batchSize", batchSize);
+        summary.putDouble("totalTime", totalTime);
+        summary.putDouble("timePerImage", uris.length > 0 ? (double) totalTime / uris.length : 0);
+
+        promise.resolve(summary);
+    }
+
+    private WritableMap createBatchEvent(String batchId, int index, String uri) {
+        WritableMap event = Arguments.createMap();
+        if (batchId != null) event.putString(OPTION_BATCH_ID, batchId);
+        event.putInt("index", index);
+        event.putString(OPTION_URI, uri);
+        return event;
+    }
+
+    private void emitBatchError(String batchId, int index, String uri, String error) {
+        WritableMap event = createBatchEvent(batchId, index, uri);
+        event.putString("error", error);
+        emitBatchEvent(event);
+    }
+
+    private void emitBatchEvent(WritableMap event) {
+        getReactApplicationContext()
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(EVENT_BATCH_PREDICTION, event);
+    }
+
 }
 
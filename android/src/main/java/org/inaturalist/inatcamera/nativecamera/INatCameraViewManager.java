@@ -6,6 +6,7 @@ import com.facebook.react.uimanager.ThemedReactContext;
 import com.facebook.react.uimanager.annotations.ReactProp;
 import com.facebook.react.bridge.ReactMethod;
 import android.widget.Toast;
+import org.inaturalist.inatcamera.classifier.ImageClassifier;
 import org.inaturalist.inatcamera.nativecamera.RNCameraView;
 import org.inaturalist.inatcamera.ui.Constants;
 import java.util.Map;
@@ -42,11 +43,61 @@ public class INatCameraViewManager extends SimpleViewManager<RNCameraView> {
         view.setDetectionInterval(Integer.valueOf(interval));
     }
 
+    @ReactProp(name = "targetDutyCycle")
+    public void setTargetDutyCycle(RNCameraView view, String dutyCycle) {
+        view.setTargetDutyCycle(dutyCycle != null ? Float.valueOf(dutyCycle) : DetectionIntervalGovernor.DEFAULT_TARGET_DUTY_CYCLE);
+    }
+
+    @ReactProp(name = "minDetectionInterval")
+    public void setMinDetectionInterval(RNCameraView view, String interval) {
+        view.setMinDetectionInterval(interval != null ? Integer.valueOf(interval) : DetectionIntervalGovernor.DEFAULT_MIN_INTERVAL);
+    }
+
+    @ReactProp(name = "maxDetectionInterval")
+    public void setMaxDetectionInterval(RNCameraView view, String interval) {
+        view.setMaxDetectionInterval(interval != null ? Integer.valueOf(interval) : DetectionIntervalGovernor.DEFAULT_MAX_INTERVAL);
+    }
+
     @ReactProp(name = "confidenceThreshold")
     public void setConfidenceThreshold(RNCameraView view, String threshold) {
         view.setConfidenceThreshold(Float.valueOf(threshold));
     }
 
+    @ReactProp(name = "numThreads")
+    public void setNumThreads(RNCameraView view, String numThreads) {
+        view.setNumThreads(numThreads != null ? Integer.valueOf(numThreads) : ImageClassifier.DEFAULT_NUM_THREADS);
+    }
+
+    @ReactProp(name = "useXNNPack")
+    public void setUseXNNPack(RNCameraView view, Boolean useXNNPack) {
+        view.setUseXNNPack(useXNNPack != null ? useXNNPack : ImageClassifier.DEFAULT_USE_XNNPACK);
+    }
+
+    @ReactProp(name = "smoothingHalfLife")
+    public void setSmoothingHalfLife(RNCameraView view, String halfLife) {
+        view.setSmoothingHalfLife(halfLife != null ? Long.valueOf(halfLife) : 0);
+    }
+
+    @ReactProp(name = "smoothingResetThreshold")
+    public void setSmoothingResetThreshold(RNCameraView view, String threshold) {
+        view.setSmoothingResetThreshold(threshold != null ? Float.valueOf(threshold) : RNCameraView.DEFAULT_SMOOTHING_RESET_THRESHOLD);
+    }
+
+    @ReactProp(name = "sceneChangeThreshold")
+    public void setSceneChangeThreshold(RNCameraView view, String threshold) {
+        view.setSceneChangeThreshold(threshold != null ? Float.valueOf(threshold) : RNCameraView.DEFAULT_SCENE_CHANGE_THRESHOLD);
+    }
+
+    @ReactProp(name = "topPredictionsCount")
+    public void setTopPredictionsCount(RNCameraView view, String count) {
+        view.setTopPredictionsCount(count != null ? Integer.valueOf(count) : 0);
+    }
+
+    @ReactProp(name = "candidatesPerRank")
+    public void setCandidatesPerRank(RNCameraView view, String count) {
+        view.setCandidatesPerRank(count != null ? Integer.valueOf(count) : 0);
+    }
+
     @ReactProp(name = "modelPath")
     public void setModelPath(RNCameraView view, String path) {
         view.setModelFilename(path);
@@ -7,6 +7,7 @@ import android.graphics.Color;
 import android.media.CamcorderProfile;
 import android.media.MediaActionSound;
 import android.os.Build;
+import android.os.SystemClock;
 import androidx.core.content.ContextCompat;
 import android.view.View;
 import android.os.AsyncTask;
@@ -15,10 +16,16 @@ import com.facebook.react.uimanager.ThemedReactContext;
 import org.inaturalist.inatcamera.ui.CameraView;
 import org.inaturalist.inatcamera.ui.Constants;
 import org.inaturalist.inatcamera.ui.AspectRatio;
+import org.inaturalist.inatcamera.ui.MainThreadMonitor;
+import org.inaturalist.inatcamera.classifier.ClassificationResult;
 import org.inaturalist.inatcamera.classifier.ImageClassifier;
+import org.inaturalist.inatcamera.classifier.ModelInput;
+import org.inaturalist.inatcamera.classifier.ClassifierRegistry;
 import android.graphics.Bitmap;
 import org.inaturalist.inatcamera.classifier.Prediction;
-import org.inaturalist.inatcamera.classifier.Node;
+import org.inaturalist.inatcamera.classifier.PredictionSerializer;
+import org.inaturalist.inatcamera.classifier.ScoreSmoother;
+import org.inaturalist.inatcamera.classifier.SceneChangeDetector;
 import android.util.Log;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
 import android.view.TextureView;
@@ -31,7 +38,15 @@ import android.location.Location;
 import android.location.LocationManager;
 import android.location.Criteria;
 import android.os.Bundle;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.PowerManager;
+import android.media.Image;
+import java.util.concurrent.atomic.AtomicInteger;
+import android.os.Handler;
+import android.os.HandlerThread;
 import com.google.android.gms.common.ConnectionResult;
 import java.io.StringWriter;
 import java.io.PrintWriter;
@@ -117,34 +132,135 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
     private static final int REASON_NOT_ENOUGH_MEMORY = 3;
     // TODO: Add more reasons (e.g. graphic card, ...)
 
-    private final Object lock = new Object();
-    private boolean mRunClassifier = false;
-    private ImageClassifier mClassifier;
+    private final ClassifierRunState mRunState = new ClassifierRunState();
+    private volatile ImageClassifier mClassifier;
+    // Guards publishing / releasing mClassifier, so a classifier loaded while the view closes is released exactly once
+    private final Object mClassifierLock = new Object();
+    private final ClassificationResult mClassificationResult = new ClassificationResult(); // Reused for every frame
     private long mLastErrorTime = 0;
     Boolean mLinneanPredictionsOnly = true;
 
     public static final float DEFAULT_CONFIDENCE_THRESHOLD = 0.7f;
     private static final int DEFAULT_TAXON_DETECTION_INTERVAL = 1000;
 
-    private int mTaxaDetectionInterval = DEFAULT_TAXON_DETECTION_INTERVAL;
-    private long mLastPredictionTime = 0;
+    // Decides how often to classify frames (fixed interval, or adapted to the classification latency)
+    private final DetectionIntervalGovernor mGovernor = new DetectionIntervalGovernor(new DetectionIntervalGovernor.Clock() {
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+    }, DEFAULT_TAXON_DETECTION_INTERVAL);
+
+    // Frames are classified on their own thread, so inference never blocks the camera thread (mBgHandler)
+    private final HandlerThread mInferenceThread;
+    private final Handler mInferenceHandler;
+    private final FrameMailbox<AnalysisFrame> mFrameMailbox = new FrameMailbox<>();
+    private static final int FRAME_POOL_SIZE = 3;
+    private final ConcurrentLinkedQueue<AnalysisFrame> mFramePool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mFrameCount = new AtomicInteger();
+
+    // When the last scan stream frame arrived - if none arrived for a while, frames are grabbed from the preview view
+    private static final long CAMERA_FRAMES_TIMEOUT = 1000;
+    // Shortest wait between two rounds of the capture loop (e.g. when no frame could be grabbed)
+    private static final long MIN_CAPTURE_DELAY = 100;
+    private volatile long mLastPreviewImageTime = 0;
+
+    private final BroadcastReceiver mPowerSaveModeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            updatePowerSaveMode();
+        }
+    };
     private float mConfidenceThreshold = DEFAULT_CONFIDENCE_THRESHOLD;
 
     private Integer mFilterByTaxonId = null; // If null -> no filter by taxon ID defined
     private boolean mNegativeFilter = false;
+    // Compiled from the filter above - kept here (and not in the classifier) since the classifier is shared
+    private volatile float[] mLeafMask = null;
+
+    // CPU execution options for the classifier's interpreter (when changed, the classification thread switches to a
+    // classifier with the new options - the classifier is shared, so it can't be changed in place)
+    private volatile int mNumThreads = ImageClassifier.DEFAULT_NUM_THREADS;
+    private volatile boolean mUseXNNPack = ImageClassifier.DEFAULT_USE_XNNPACK;
+    private volatile boolean mInterpreterOptionsChanged = false;
+
+    // Temporal smoothing of the model output across frames (a half-life of 0 = no smoothing)
+    public static final float DEFAULT_SMOOTHING_RESET_THRESHOLD = 0.0f;
+    private final ScoreSmoother mSmoother = new ScoreSmoother(0, DEFAULT_SMOOTHING_RESET_THRESHOLD);
+    private volatile boolean mSmootherReset = false;
+
+    // Skipping inference on frames that didn't change since the last classified one (a threshold of 0 = never skip)
+    public static final float DEFAULT_SCENE_CHANGE_THRESHOLD = 0.0f;
+    private final SceneChangeDetector mSceneChangeDetector = new SceneChangeDetector(DEFAULT_SCENE_CHANGE_THRESHOLD);
+    private volatile boolean mSceneChangeReset = false;
+    private int[] mFramePixels = new int[ImageClassifier.DIM_IMG_SIZE_X * ImageClassifier.DIM_IMG_SIZE_Y];
+
+    // How many top leaf predictions / best candidates per rank to add to onTaxaDetected (0 = none) - set from the
+    // UI thread, read on the inference thread
+    private volatile int mTopPredictionsCount = 0;
+    private volatile int mCandidatesPerRank = 0;
 
     public void setFilterByTaxonId(Integer taxonId) {
         mFilterByTaxonId = taxonId;
-        if (mClassifier != null) {
-            mClassifier.setFilterByTaxonId(mFilterByTaxonId);
-        }
+        updateLeafMask();
     }
 
     public void setNegativeFilter(boolean negative) {
         mNegativeFilter = negative;
-        if (mClassifier != null) {
-            mClassifier.setNegativeFilter(mNegativeFilter);
+        updateLeafMask();
+    }
+
+    private void updateLeafMask() {
+        ImageClassifier classifier = mClassifier;
+        if (classifier != null) {
+            mLeafMask = classifier.compileLeafMask(mFilterByTaxonId, mNegativeFilter);
         }
+        invalidateLastResult();
+    }
+
+    public void setSceneChangeThreshold(float threshold) {
+        mSceneChangeDetector.setThreshold(threshold);
+        invalidateLastResult();
+    }
+
+    /** Makes sure the next frame gets classified, even if the scene didn't change (e.g. when the filter changed) */
+    private void invalidateLastResult() {
+        mSceneChangeReset = true;
+    }
+
+    public void setNumThreads(int numThreads) {
+        mNumThreads = numThreads;
+        mInterpreterOptionsChanged = true;
+    }
+
+    public void setUseXNNPack(boolean useXNNPack) {
+        mUseXNNPack = useXNNPack;
+        mInterpreterOptionsChanged = true;
+    }
+
+    public void setSmoothingHalfLife(long halfLife) {
+        mSmoother.setHalfLife(halfLife);
+        resetSmoothing();
+    }
+
+    public void setSmoothingResetThreshold(float threshold) {
+        mSmoother.setResetThreshold(threshold);
+    }
+
+    /** Forgets the previous frames' scores, so the next prediction is based on the next frame alone */
+    public void resetSmoothing() {
+        mSmootherReset = true;
+        invalidateLastResult();
+    }
+
+    public void setTopPredictionsCount(int count) {
+        mTopPredictionsCount = count;
+        invalidateLastResult();
+    }
+
+    public void setCandidatesPerRank(int count) {
+        mCandidatesPerRank = count;
+        invalidateLastResult();
     }
 
     public void setConfidenceThreshold(float confidence) {
@@ -157,11 +273,30 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
 
 
     public void setDetectionInterval(int interval) {
-        mTaxaDetectionInterval = interval;
+        mGovernor.setFixedInterval(interval);
+    }
+
+    public void setTargetDutyCycle(float dutyCycle) {
+        mGovernor.setTargetDutyCycle(dutyCycle);
+    }
+
+    public void setMinDetectionInterval(int interval) {
+        mGovernor.setMinInterval(interval);
+    }
+
+    public void setMaxDetectionInterval(int interval) {
+        mGovernor.setMaxInterval(interval);
+    }
+
+    private void updatePowerSaveMode() {
+        PowerManager powerManager = (PowerManager) mThemedReactContext.getSystemService(Context.POWER_SERVICE);
+        mGovernor.setPowerSaveMode(powerManager != null && powerManager.isPowerSaveMode());
     }
 
     public void setModelFilename(String filename) {
         mModelFilename = filename;
+        // Frames to classify come from the camera's scan (YUV) stream
+        setScanning(filename != null);
     }
 
     public void setTaxonomyFilename(String filename) {
@@ -176,6 +311,16 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
 
         Timber.plant(new LogEventTree(themedReactContext, this));
 
+        mInferenceThread = new HandlerThread("RNCamera-Inference-Thread");
+        mInferenceThread.start();
+        mInferenceHandler = new Handler(mInferenceThread.getLooper());
+
+        themedReactContext.registerReceiver(mPowerSaveModeReceiver, new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+        updatePowerSaveMode();
+
+        // Frames get scaled down to the model input anyway - no need for a larger scan stream
+        setMinAnalysisSize(Math.max(ImageClassifier.DIM_IMG_SIZE_X, ImageClassifier.DIM_IMG_SIZE_Y));
+
         addCallback(new Callback() {
             @Override
             public void onMountError(CameraView cameraView, Exception exc) {
@@ -205,8 +350,8 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
             }
 
             @Override
-            public void onFramePreview(CameraView cameraView, byte[] data, int width, int height, int rotation) {
-                int correctRotation = RNCameraViewHelper.getCorrectCameraRotation(rotation, getFacing(), getCameraOrientation());
+            public void onPreviewImage(CameraView cameraView, Image image, int rotation) {
+                RNCameraView.this.onPreviewImage(image, rotation);
             }
         });
 
@@ -274,9 +419,7 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
             Timber.tag(TAG).d("takePicture 3");
             RNCameraView.super.takePicture(options);
             if (options.hasKey("pauseAfterCapture") && options.getBoolean("pauseAfterCapture")) {
-                synchronized (lock) {
-                    mRunClassifier = false;
-                }
+                mRunState.pause();
             }
         } catch (Exception e) {
             mPictureTakenPromises.remove(promise);
@@ -346,11 +489,23 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
                 public void run() {
                     try {
                         long start = System.currentTimeMillis();
-                        mClassifier = new ImageClassifier(mModelFilename, mTaxonomyFilename);
+                        mInterpreterOptionsChanged = false;
+                        ImageClassifier classifier = ClassifierRegistry.acquire(mModelFilename, mTaxonomyFilename, mNumThreads, mUseXNNPack);
+                        synchronized (mClassifierLock) {
+                            if (!mRunState.isClosed() && (mClassifier == null)) {
+                                mClassifier = classifier;
+                                classifier = null;
+                            }
+                        }
+                        if (classifier != null) {
+                            // The view was destroyed while the classifier was loading (or an earlier load won)
+                            ClassifierRegistry.release(classifier);
+                            return;
+                        }
                         long end = System.currentTimeMillis() - start;
                         Timber.tag(TAG).d("RNCameraView - onHostResume - classifier run time: " + end);
-                        mClassifier.setFilterByTaxonId(mFilterByTaxonId);
-                        mClassifier.setNegativeFilter(mNegativeFilter);
+                        updateLeafMask();
+                        resetSmoothing();
                     } catch (IOException e) {
                         e.printStackTrace();
                         onClassifierError("Failed to initialize an image mClassifier: " + e.getMessage());
@@ -368,9 +523,7 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
 
                     Timber.tag(TAG).d("RNCameraView - onHostResume 8");
 
-                    synchronized (lock) {
-                        mRunClassifier = true;
-                    }
+                    resumeClassification();
 
                 }
             }).start();
@@ -379,7 +532,7 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
 
 
         Timber.tag(TAG).d("RNCameraView - onHostResume 7");
-        mBgHandler.post(periodicClassify);
+        startFrameCapture();
     }
 
     @Override
@@ -392,9 +545,11 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
             stop();
         }
 
-        synchronized (lock) {
-            mRunClassifier = false;
-        }
+        mRunState.pause();
+        stopFrameCapture();
+
+        // Whatever was in front of the camera before the pause is no longer relevant
+        resetSmoothing();
     }
 
     @Override
@@ -404,29 +559,50 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
 
         this.cleanup();
 
-        if (mClassifier != null) {
-            mClassifier.close();
+        mInferenceThread.quitSafely();
+
+        try {
+            mThemedReactContext.unregisterReceiver(mPowerSaveModeReceiver);
+        } catch (IllegalArgumentException e) {
+            // Already unregistered
+        }
+
+        stopFrameCapture();
+
+        // If a frame is being classified right now, the inference thread releases the classifier once it's done
+        if (mRunState.close()) {
+            releaseClassifier();
         }
+    }
 
-        synchronized (lock) {
-            mRunClassifier = false;
+    private void releaseClassifier() {
+        ImageClassifier classifier;
+        synchronized (mClassifierLock) {
+            classifier = mClassifier;
+            mClassifier = null;
+        }
+        mLeafMask = null;
+        if (classifier != null) {
+            ClassifierRegistry.release(classifier);
         }
     }
 
     @Override
     public void pausePreview() {
         super.pausePreview();
-        synchronized (lock) {
-            mRunClassifier = false;
-        }
+        mRunState.pause();
     }
 
     @Override
     public void resumePreview() {
         super.resumePreview();
-        synchronized (lock) {
-            mRunClassifier = true;
-        }
+        resumeClassification();
+    }
+
+    /** Lets frames be classified again, and restarts the capture loop (which stops while classification is paused) */
+    private void resumeClassification() {
+        mRunState.resume();
+        startFrameCapture();
     }
 
     private boolean hasCameraPermissions() {
@@ -439,72 +615,299 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
     }
 
 
-    /** Takes photos and classify them periodically. */
-    private Runnable periodicClassify =
-            new Runnable() {
-                @Override
-                public void run() {
-                    long timePassed = System.currentTimeMillis() - mLastPredictionTime;
-                    if (timePassed < mTaxaDetectionInterval) {
-                        // Make sure we don't run the image classification too often
-                        try {
-                            Thread.sleep(mTaxaDetectionInterval - timePassed);
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
+    /**
+     * Grabs preview frames periodically (on the camera thread) and hands them off to the inference thread. Only the
+     * latest frame is kept, so a slow classification never delays camera operations or makes frames pile up.
+     */
+    private final Runnable mCaptureFrame = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunState.isActive()) {
+                // Paused or closed - resumeClassification() restarts the loop
+                return;
+            }
 
-                    synchronized (lock) {
-                        if (mRunClassifier) {
-                            classifyFrame();
-                        }
+            // Frames normally come from the camera's scan stream (onPreviewImage) - grabbing them from the preview
+            // view is only a fallback, for when that stream doesn't deliver any
+            boolean hasCameraFrames = SystemClock.uptimeMillis() - mLastPreviewImageTime < CAMERA_FRAMES_TIMEOUT;
+
+            if (!hasCameraFrames) {
+                AnalysisFrame frame = obtainFrame();
+                if (frame != null) {
+                    frame.bitmap = captureFrame();
+                    if (frame.bitmap != null) {
+                        postFrame(frame);
+                        mGovernor.onRun();
+                    } else {
+                        recycleFrame(frame);
                     }
+                }
+            }
 
-                    mLastPredictionTime = System.currentTimeMillis();
+            mBgHandler.postDelayed(mCaptureFrame, Math.max(mGovernor.getDelay(), hasCameraFrames ? CAMERA_FRAMES_TIMEOUT : MIN_CAPTURE_DELAY));
+        }
+    };
 
-                    mBgHandler.post(periodicClassify);
+    /** Converts a scan stream frame straight into a model input, if it's time to classify a frame (camera thread). */
+    private void onPreviewImage(Image image, int rotation) {
+        mLastPreviewImageTime = SystemClock.uptimeMillis();
 
-                }
-            };
+        if (!mRunState.isActive() || (mGovernor.getDelay() > 0)) {
+            return;
+        }
 
+        ImageClassifier classifier = mClassifier;
+        if (classifier == null) {
+            return;
+        }
+        AnalysisFrame frame = obtainFrame();
+        if (frame == null) {
+            return;
+        }
 
-    /** Classifies a frame from the preview stream. */
-    private void classifyFrame() {
-        if (mClassifier == null) {
+        Image.Plane[] planes;
+        try {
+            planes = image.getPlanes();
+        } catch (RuntimeException exc) {
+            Timber.tag(TAG).e("onPreviewImage - exception: " + exc);
+            recycleFrame(frame);
             return;
         }
+
+        int correctRotation = RNCameraViewHelper.getCorrectCameraRotation(rotation, getFacing(), getCameraOrientation());
+        classifier.convertYuvFrame(planes[0].getBuffer(), planes[1].getBuffer(), planes[2].getBuffer(),
+                planes[0].getRowStride(), planes[1].getRowStride(), planes[1].getPixelStride(),
+                image.getWidth(), image.getHeight(), correctRotation, frame.input);
+
+        if (mSceneChangeDetector.getThreshold() > 0) {
+            // Of the same (cropped and rotated) region as preview bitmaps, so thumbnails of both can be compared
+            SceneChangeDetector.computeLumaThumbnail(planes[0].getBuffer(), planes[0].getRowStride(),
+                    image.getWidth(), image.getHeight(), correctRotation, frame.thumbnail);
+            frame.hasThumbnail = true;
+        }
+
+        postFrame(frame);
+        mGovernor.onRun();
+    }
+
+    /** Hands a frame off to the inference thread (replacing the waiting one, if any) */
+    private void postFrame(AnalysisFrame frame) {
+        AnalysisFrame dropped = mFrameMailbox.post(frame);
+        if (dropped != null) {
+            // The inference thread is still busy with an older frame - it'll take the new one next
+            recycleFrame(dropped);
+        } else {
+            mInferenceHandler.post(mConsumeFrame);
+        }
+    }
+
+    /** Returns a frame from the pool - at most three frames are needed (being written, waiting, being classified) */
+    private AnalysisFrame obtainFrame() {
+        AnalysisFrame frame = mFramePool.poll();
+        if (frame != null) return frame;
+
+        ImageClassifier classifier = mClassifier;
+        if ((classifier == null) || (mFrameCount.get() >= FRAME_POOL_SIZE)) return null;
+
+        ModelInput input = classifier.createInput();
+        if (input == null) return null;
+
+        mFrameCount.incrementAndGet();
+        return new AnalysisFrame(input);
+    }
+
+    private void recycleFrame(AnalysisFrame frame) {
+        if (frame.bitmap != null) {
+            frame.bitmap.recycle();
+            frame.bitmap = null;
+        }
+        frame.hasThumbnail = false;
+        mFramePool.offer(frame);
+    }
+
+    /** Classifies the latest captured frame (on the inference thread). */
+    private final Runnable mConsumeFrame = new Runnable() {
+        @Override
+        public void run() {
+            AnalysisFrame frame = mFrameMailbox.take();
+            if (frame == null) return;
+
+            if (!mRunState.tryStart()) {
+                // Paused / closed since the frame was captured
+                recycleFrame(frame);
+                return;
+            }
+
+            try {
+                classifyFrame(frame);
+            } finally {
+                recycleFrame(frame);
+                if (mRunState.finish()) {
+                    releaseClassifier();
+                }
+            }
+        }
+    };
+
+    private void startFrameCapture() {
+        mBgHandler.removeCallbacks(mCaptureFrame);
+        mBgHandler.post(mCaptureFrame);
+    }
+
+    private void stopFrameCapture() {
+        mBgHandler.removeCallbacks(mCaptureFrame);
+        AnalysisFrame frame = mFrameMailbox.take();
+        if (frame != null) {
+            recycleFrame(frame);
+        }
+    }
+
+    /** Grabs the current preview frame, center-cropped to the classifier input size (like scan stream frames) */
+    private Bitmap captureFrame() {
         TextureView textureView = getTextureView();
+        int viewWidth = textureView.getWidth();
+        int viewHeight = textureView.getHeight();
+        if ((viewWidth <= 0) || (viewHeight <= 0)) {
+            return null;
+        }
+
+        // Grab the preview with its aspect ratio kept, with its shorter side at the classifier input size
+        float scale = (float) ImageClassifier.DIM_IMG_SIZE_X / Math.min(viewWidth, viewHeight);
         Bitmap bitmap = null;
         try {
-            bitmap = textureView.getBitmap(ImageClassifier.DIM_IMG_SIZE_X, ImageClassifier.DIM_IMG_SIZE_Y);
+            Bitmap preview = textureView.getBitmap(Math.max(ImageClassifier.DIM_IMG_SIZE_X, Math.round(viewWidth * scale)),
+                    Math.max(ImageClassifier.DIM_IMG_SIZE_Y, Math.round(viewHeight * scale)));
+            if (preview != null) {
+                bitmap = ImageClassifier.cropToInputSize(preview);
+                if (bitmap != preview) {
+                    preview.recycle();
+                }
+            }
         } catch (Exception exc) {
             Timber.tag(TAG).e("TextureView.getBitmap exception: " + exc);
             Timber.tag(TAG).e(exc);
-            return;
+            return null;
         }
 
         if (bitmap == null) {
             Timber.tag(TAG).e("Null input bitmap");
+        }
+
+        return bitmap;
+    }
+
+
+    /** Classifies a frame (a converted camera frame, or a bitmap grabbed from the preview). */
+    private void classifyFrame(AnalysisFrame frame) {
+        ImageClassifier classifier = mClassifier;
+        if (classifier == null) {
             return;
         }
 
-        List<Prediction> predictions = null;
+        long startTime = SystemClock.uptimeMillis();
+
+        if (mInterpreterOptionsChanged) {
+            // Apply the new interpreter options without remounting
+            mInterpreterOptionsChanged = false;
+            classifier = switchClassifier(classifier);
+            if (classifier == null) {
+                return;
+            }
+        }
+
+        ClassificationResult result = mClassificationResult;
+
+        if (mSmootherReset) {
+            mSmootherReset = false;
+            mSmoother.reset();
+        }
+        if (mSceneChangeReset) {
+            mSceneChangeReset = false;
+            mSceneChangeDetector.reset();
+        }
+
+        if (mSceneChangeDetector.getThreshold() > 0) {
+            Bitmap bitmap = frame.bitmap;
+            if (bitmap != null) {
+                bitmap.getPixels(mFramePixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+                SceneChangeDetector.computeThumbnail(mFramePixels, bitmap.getWidth(), bitmap.getHeight(), frame.thumbnail);
+                frame.hasThumbnail = true;
+            }
+            if (frame.hasThumbnail && !mSceneChangeDetector.hasChanged(frame.thumbnail)) {
+                // Same scene as the last classified frame - its result was already reported, so there's nothing new
+                // to send (and no need to run the model again)
+                return;
+            }
+        }
 
         try {
-            predictions = mClassifier.classifyFrame(bitmap);
-            bitmap.recycle();
+            ScoreSmoother smoother = mSmoother.getHalfLife() > 0 ? mSmoother : null;
+            long timestamp = SystemClock.uptimeMillis();
+            boolean classified = frame.bitmap != null ?
+                    classifier.classifyFrame(frame.bitmap, mLeafMask, smoother, timestamp, mTopPredictionsCount, mCandidatesPerRank, result) :
+                    classifier.classifyInput(frame.input, mLeafMask, smoother, timestamp, mTopPredictionsCount, mCandidatesPerRank, result);
+            if (!classified) {
+                mSceneChangeDetector.reset();
+                return;
+            }
+            mGovernor.recordLatency(SystemClock.uptimeMillis() - startTime);
         } catch (OutOfMemoryError e) {
             e.printStackTrace();
             Timber.tag(TAG).w("classifyFrame - Out of memory - " + e);
             Timber.tag(TAG).e(e);
+            mSceneChangeDetector.reset();
+            return;
+        }
+
+        onFrameClassified(result);
+    }
+
+    /**
+     * Replaces the view's classifier with one running with the current interpreter options (inference thread), and
+     * returns it - or null if it couldn't be loaded, or the view was closed in the meantime.
+     */
+    private ImageClassifier switchClassifier(ImageClassifier current) {
+        ImageClassifier classifier;
+        try {
+            classifier = ClassifierRegistry.acquire(mModelFilename, mTaxonomyFilename, mNumThreads, mUseXNNPack);
+        } catch (IOException e) {
+            e.printStackTrace();
+            onClassifierError("Failed to apply interpreter options: " + e.getMessage());
+            return null;
+        }
+
+        ImageClassifier previous = null;
+        synchronized (mClassifierLock) {
+            if (!mRunState.isClosed() && (mClassifier == current)) {
+                mClassifier = classifier;
+                previous = current;
+            }
+        }
+        if (previous == null) {
+            ClassifierRegistry.release(classifier);
+            return null;
+        }
+
+        ClassifierRegistry.release(previous);
+        updateLeafMask();
+        return classifier;
+    }
+
+    /** Selects the prediction to report out of a frame's classification result */
+    private void onFrameClassified(ClassificationResult result) {
+        if (mRunState.isCancelled()) {
+            // Paused / closed while the frame was being classified - its result is no longer wanted
             return;
         }
 
+        List<Prediction> predictions = result.bestBranch;
+
         // Return only one prediction, as accurate as possible (e.g. prefer species over family), that passes the minimal threshold
         Prediction selectedPrediction = null;
 
-        Collections.reverse(predictions);
-        for (Prediction prediction : predictions) {
+        // Go over the best branch from the most specific prediction up
+        for (int i = predictions.size() - 1; i >= 0; i--) {
+            Prediction prediction = predictions.get(i);
             if (mLinneanPredictionsOnly) {
                 // only KPCOFGS ranks qualify as "top" predictions
                 // in the iNat taxonomy, KPCOFGS ranks are 70,60,50,40,30,20,10
@@ -519,10 +922,38 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
         }
 
         if (selectedPrediction != null) {
-            onTaxaDetected(selectedPrediction);
+            onTaxaDetected(selectedPrediction, result);
         }
     }
 
+    /** Returns statistics about the live classification (frames skipped as unchanged, last stage timings) */
+    public WritableMap getStatistics() {
+        WritableMap statistics = Arguments.createMap();
+        statistics.putDouble("frameCount", mSceneChangeDetector.getFrameCount());
+        statistics.putDouble("skippedFrameCount", mSceneChangeDetector.getSkippedCount());
+        statistics.putDouble("skipRatio", mSceneChangeDetector.getSkipRatio());
+        statistics.putString("runState", mRunState.toString());
+        statistics.putDouble("capturedFrameCount", mFrameMailbox.getPostedCount());
+        statistics.putDouble("droppedFrameCount", mFrameMailbox.getDroppedCount());
+        statistics.putDouble("detectionInterval", mGovernor.getInterval());
+        statistics.putDouble("averageLatency", mGovernor.getAverageLatency());
+        statistics.putBoolean("powerSaveMode", mGovernor.isPowerSaveMode());
+
+        MainThreadMonitor monitor = getMainThreadMonitor();
+        statistics.putDouble("mainThreadCameraCalls", monitor.getCallCount());
+        statistics.putDouble("mainThreadCameraTime", monitor.getTotalTime());
+        statistics.putDouble("mainThreadCameraMaxTime", monitor.getMaxTime());
+
+        ImageClassifier classifier = mClassifier;
+        if (classifier != null) {
+            statistics.putDouble("preprocessingTime", classifier.getLastPreprocessingTime());
+            statistics.putDouble("inferenceTime", classifier.getLastInferenceTime());
+            statistics.putDouble("postProcessingTime", classifier.getLastPostProcessingTime());
+        }
+
+        return statistics;
+    }
+
     /** Retrieves predictions for a single frame */
     public List<Prediction> getPredictionsForImage(Bitmap bitmap) {
         if (mClassifier == null) {
@@ -533,10 +964,13 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
         // Resize bitmap to the size the classifier supports
         Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, ImageClassifier.DIM_IMG_SIZE_X, ImageClassifier.DIM_IMG_SIZE_Y, true);
 
-        List<Prediction> predictions = mClassifier.classifyFrame(resizedBitmap);
-        resizedBitmap.recycle();
+        ClassificationResult result = new ClassificationResult();
+        boolean classified = mClassifier.classifyFrame(resizedBitmap, mLeafMask, 0, 0, result);
+        if (resizedBitmap != bitmap) {
+            resizedBitmap.recycle();
+        }
 
-        return predictions;
+        return classified ? result.bestBranch : new ArrayList<Prediction>();
     }
 
 
@@ -563,17 +997,19 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
         return null;
     }
 
-    void onTaxaDetected(Prediction prediction) {
+    void onTaxaDetected(Prediction prediction, ClassificationResult result) {
         // Convert Prediction into a structure separating by rank name
         List<Prediction> predictions = Arrays.asList(prediction);
         WritableMap event = predictionsToMap(predictions);
+        putRankedPredictions(event, result);
 
         mThemedReactContext.getJSModule(RCTEventEmitter.class).receiveEvent(
                 getId(),
                 EVENT_NAME_ON_TAXA_DETECTED,
                 event);
 
-        mLastPredictions.add(prediction);
+        // The prediction object is reused for the next frame - keep a copy of it
+        mLastPredictions.add(new Prediction(prediction.node, prediction.probability));
 
         if (mLastPredictions.size() > LAST_PREDICTIONS_COUNT) {
             mLastPredictions.remove(0);
@@ -669,41 +1105,77 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
         return event;
     }
 
-    /** Converts a prediction result to a map */
-    public static WritableMap nodeToMap(Prediction prediction) {
-        WritableMap result = Arguments.createMap();
+    /** Adds the top leaf predictions and the best candidates per rank (if any were requested) to a result map */
+    public static void putRankedPredictions(WritableMap map, ClassificationResult result) {
+        if (!result.topLeaves.isEmpty()) {
+            map.putArray("top_predictions", predictionsToArray(result.topLeaves));
+        }
 
-        if (prediction.node == null) return null;
+        if (!result.candidatesByRank.isEmpty()) {
+            WritableMap candidates = Arguments.createMap();
+            for (Map.Entry<Float, List<Prediction>> entry : result.candidatesByRank.entrySet()) {
+                String rankName = RANK_LEVEL_TO_NAME.get(entry.getKey());
+                if (rankName == null) continue;
 
-        try {
-            result.putInt("taxon_id", Integer.valueOf(prediction.node.key));
-            result.putString("name", prediction.node.name);
-            result.putDouble("score", prediction.probability);
-            result.putDouble("rank", prediction.node.rank);
-        } catch (NumberFormatException exc) {
-            // Invalid node key or class ID
-            exc.printStackTrace();
-            return null;
+                candidates.putArray(rankName, predictionsToArray(entry.getValue()));
+            }
+            map.putMap("candidates", candidates);
+        }
+    }
+
+    private static WritableArray predictionsToArray(List<Prediction> predictions) {
+        WritableArray results = Arguments.createArray();
+        for (Prediction prediction : predictions) {
+            WritableMap map = nodeToMap(prediction);
+            if (map == null) continue;
+
+            results.pushMap(map);
         }
+        return results;
+    }
 
-        // Create the ancestors list for the result
-        List<Integer> ancestorsList = new ArrayList<>();
-        Node currentNode = prediction.node;
-        while (currentNode.parent != null) {
-            if ((currentNode.parent.key != null) && (currentNode.parent.key.matches("\\d+"))) {
-                ancestorsList.add(Integer.valueOf(currentNode.parent.key));
-            }
-            currentNode = currentNode.parent;
+    /** Creates React Native maps and arrays, for PredictionSerializer */
+    private static final PredictionSerializer.Output<WritableMap, WritableArray> WRITABLE_OUTPUT =
+            new PredictionSerializer.Output<WritableMap, WritableArray>() {
+        @Override
+        public WritableMap createMap() {
+            return Arguments.createMap();
         }
-        Collections.reverse(ancestorsList);
-        WritableArray ancestors = Arguments.createArray();
-        for (Integer id : ancestorsList) {
-            ancestors.pushInt(id);
+
+        @Override
+        public WritableArray createArray() {
+            return Arguments.createArray();
         }
 
-        result.putArray("ancestor_ids", ancestors);
+        @Override
+        public void putInt(WritableMap map, String key, int value) {
+            map.putInt(key, value);
+        }
 
-        return result;
+        @Override
+        public void putDouble(WritableMap map, String key, double value) {
+            map.putDouble(key, value);
+        }
+
+        @Override
+        public void putString(WritableMap map, String key, String value) {
+            map.putString(key, value);
+        }
+
+        @Override
+        public void putArray(WritableMap map, String key, WritableArray array) {
+            map.putArray(key, array);
+        }
+
+        @Override
+        public void pushInt(WritableArray array, int value) {
+            array.pushInt(value);
+        }
+    };
+
+    /** Converts a prediction result to a map */
+    public static WritableMap nodeToMap(Prediction prediction) {
+        return PredictionSerializer.toMap(prediction, WRITABLE_OUTPUT);
     }
 
     public void fillResults(WritableMap response, List<Prediction> predictions) {
@@ -711,15 +1183,10 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
             return;
         }
 
-        WritableArray results = Arguments.createArray();
-
         boolean hasGoodPrediction = false; // Whether or not the current result set has a species-level prediction with good enough confidence
 
         for (Prediction prediction : predictions) {
-            WritableMap map = nodeToMap(prediction);
-            if (map == null) continue;
-
-            results.pushMap(map);
+            if (prediction.node == null) continue;
 
             if ((prediction.node.rank <= 10) && (prediction.probability > mConfidenceThreshold)) {
                 hasGoodPrediction = true;
@@ -740,23 +1207,15 @@ public class RNCameraView extends CameraView implements LifecycleEventListener,
             }
         }
 
-        if (predictionAdded != null) {
-            // Make sure to remove the less precise prediction of the same rank
-            WritableArray results2 = Arguments.createArray();
-            for (Prediction prediction : predictions) {
-                if (predictionAdded.node.rank == prediction.node.rank) {
-                    // Add the new, more precise prediction instead of this one
-                    WritableMap map = nodeToMap(predictionAdded);
-                    if (map == null) continue;
-                    results2.pushMap(map);
-                } else {
-                    WritableMap map = nodeToMap(prediction);
-                    if (map == null) continue;
-                    results2.pushMap(map);
-                }
+        // Each prediction is converted once (if one was added, it replaces the less precise prediction of the same rank)
+        WritableArray results = Arguments.createArray();
+        for (Prediction prediction : predictions) {
+            if ((predictionAdded != null) && (prediction.node != null) && (predictionAdded.node.rank == prediction.node.rank)) {
+                prediction = predictionAdded;
             }
-
-            results = results2;
+            WritableMap map = nodeToMap(prediction);
+            if (map == null) continue;
+            results.pushMap(map);
         }
 
         response.putArray("predictions", results);
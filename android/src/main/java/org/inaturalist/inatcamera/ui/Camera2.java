@@ -18,7 +18,6 @@ package org.inaturalist.inatcamera.ui;
 
 import timber.log.*;
 import android.annotation.TargetApi;
-import java.util.Iterator;
 import android.content.Context;
 import android.graphics.ImageFormat;
 import android.graphics.Rect;
@@ -52,12 +51,13 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.SortedSet;
 
 @SuppressWarnings("MissingPermission")
@@ -85,19 +85,30 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
 
     private static final int FOCUS_AREA_SIZE_DEFAULT = 300;
 
+    // Shared by all camera views, so solved stream sizes are cached per camera ID
+    private static final StreamConfigurationSolver STREAM_SOLVER = new StreamConfigurationSolver();
+
     private static final int FOCUS_METERING_AREA_WEIGHT_DEFAULT = 1000;
 
     private final CameraManager mCameraManager;
 
+    // Camera device, session and capture callbacks run on the camera thread, and frames are delivered on the image
+    // reader thread - none of them on the main thread
+    private final Handler mCameraHandler;
+
+    private final Handler mImageReaderHandler;
+
     private final CameraDevice.StateCallback mCameraDeviceCallback
             = new CameraDevice.StateCallback() {
 
         @Override
         public void onOpened(@NonNull CameraDevice camera) {
+            long startTime = mMainThreadMonitor.begin();
             Timber.tag(TAG).d("Camera - onOpened: " + camera);
             mCamera = camera;
             mCallback.onCameraOpened();
             startCaptureSession();
+            mMainThreadMonitor.end(startTime);
         }
 
         @Override
@@ -125,6 +136,15 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
 
         @Override
         public void onConfigured(@NonNull CameraCaptureSession session) {
+            long startTime = mMainThreadMonitor.begin();
+            try {
+                configureSession(session);
+            } finally {
+                mMainThreadMonitor.end(startTime);
+            }
+        }
+
+        private void configureSession(@NonNull CameraCaptureSession session) {
             if (mCamera == null) {
                 return;
             }
@@ -151,7 +171,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
                     Timber.tag(TAG).e("onConfigured - mCaptureSession is null");
                 } else {
                     mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                            mCaptureCallback, null);
+                            mCaptureCallback, mCameraHandler);
                 }
             } catch (CameraAccessException e) {
                 Timber.tag(TAG).e("Failed to start camera preview because it couldn't access camera", e);
@@ -188,7 +208,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
                     CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
             setState(STATE_PRECAPTURE);
             try {
-                mCaptureSession.capture(mPreviewRequestBuilder.build(), this, null);
+                mCaptureSession.capture(mPreviewRequestBuilder.build(), this, mCameraHandler);
                 mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
                         CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
             } catch (IllegalStateException e) {
@@ -211,7 +231,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
 
         @Override
         public void onImageAvailable(ImageReader reader) {
-            Timber.tag(TAG).d("onImageAvailable");
+            long startTime = mMainThreadMonitor.begin();
             try (Image image = reader.acquireNextImage()) {
                 Image.Plane[] planes = null;
                 try {
@@ -221,18 +241,21 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
                 }
 
                 if ((planes != null) && (planes.length > 0)) {
-                    ByteBuffer buffer = planes[0].getBuffer();
-                    byte[] data = new byte[buffer.remaining()];
-                    buffer.get(data);
                     if (image.getFormat() == ImageFormat.JPEG) {
+                        ByteBuffer buffer = planes[0].getBuffer();
+                        byte[] data = new byte[buffer.remaining()];
+                        buffer.get(data);
                         // @TODO: implement deviceOrientation
                         Timber.tag(TAG).d("onImageAvailable 2");
                         mCallback.onPictureTaken(data, 0);
                     } else {
-                        mCallback.onFramePreview(data, image.getWidth(), image.getHeight(), mDisplayOrientation);
+                        // Scan frames are handed over as is (no copying) - the image is only valid during the callback
+                        mCallback.onPreviewImage(image, mDisplayOrientation);
                     }
                     image.close();
                 }
+            } finally {
+                mMainThreadMonitor.end(startTime);
             }
         }
 
@@ -244,13 +267,13 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
 
     private CameraCharacteristics mCameraCharacteristics;
 
-    CameraDevice mCamera;
+    volatile CameraDevice mCamera;
 
-    CameraCaptureSession mCaptureSession;
+    volatile CameraCaptureSession mCaptureSession;
 
-    CaptureRequest.Builder mPreviewRequestBuilder;
+    volatile CaptureRequest.Builder mPreviewRequestBuilder;
 
-    Set<String> mAvailableCameras = new HashSet<>();
+    Set<String> mAvailableCameras = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     private ImageReader mStillImageReader;
 
@@ -268,6 +291,10 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
 
     private final SizeMap mPictureSizes = new SizeMap();
 
+    private final SizeMap mAnalysisSizes = new SizeMap();
+
+    private volatile int mMinAnalysisSize;
+
     private Size mPictureSize;
 
     private int mFacing;
@@ -300,8 +327,11 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
 
     private Rect mInitialCropRegion;
 
-    Camera2(Callback callback, PreviewImpl preview, Context context, Handler bgHandler) {
+    Camera2(Callback callback, PreviewImpl preview, Context context, Handler bgHandler,
+            Handler cameraHandler, Handler imageReaderHandler) {
         super(callback, preview, bgHandler);
+        mCameraHandler = cameraHandler;
+        mImageReaderHandler = imageReaderHandler;
         mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
         mCameraManager.registerAvailabilityCallback(new CameraManager.AvailabilityCallback() {
             @Override
@@ -315,7 +345,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
                 super.onCameraUnavailable(cameraId);
                 mAvailableCameras.remove(cameraId);
             }
-        }, null);
+        }, mCameraHandler);
         mImageFormat = mIsScanning ? ImageFormat.YUV_420_888 : ImageFormat.JPEG;
         mPreview.setCallback(new PreviewImpl.Callback() {
             @Override
@@ -367,15 +397,11 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
             mCamera.close();
             mCamera = null;
         }
-        if (mStillImageReader != null) {
-            mStillImageReader.close();
-            mStillImageReader = null;
-        }
+        closeImageReader(mStillImageReader);
+        mStillImageReader = null;
 
-        if (mScanImageReader != null) {
-            mScanImageReader.close();
-            mScanImageReader = null;
-        }
+        closeImageReader(mScanImageReader);
+        mScanImageReader = null;
 
         if (mMediaRecorder != null) {
             mMediaRecorder.stop();
@@ -486,9 +512,8 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
             mCaptureSession.close();
             mCaptureSession = null;
         }
-        if (mStillImageReader != null) {
-            mStillImageReader.close();
-        }
+        closeImageReader(mStillImageReader);
+        mStillImageReader = null;
         if (size == null) {
             if (mAspectRatio == null) {
                 Timber.tag(TAG).d("setPictureSize 2");
@@ -526,7 +551,6 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
         mAspectRatio = ratio;
         Timber.tag(TAG).d("setAspectRatio 4");
         prepareStillImageReader();
-        prepareScanImageReader();
         if (mCaptureSession != null) {
             Timber.tag(TAG).d("setAspectRatio 5");
             mCaptureSession.close();
@@ -552,7 +576,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
             if (mCaptureSession != null) {
                 try {
                     mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                            mCaptureCallback, null);
+                            mCaptureCallback, mCameraHandler);
                 } catch (CameraAccessException e) {
                     mAutoFocus = !mAutoFocus; // Revert
                 }
@@ -577,7 +601,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
             if (mCaptureSession != null) {
                 try {
                     mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                            mCaptureCallback, null);
+                            mCaptureCallback, mCameraHandler);
                 } catch (CameraAccessException e) {
                     mFlash = saved; // Revert
                 }
@@ -636,7 +660,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
                 mPreviewRequestBuilder.addTarget(surface);
                 mPreviewRequestBuilder.addTarget(mMediaRecorderSurface);
                 mCamera.createCaptureSession(Arrays.asList(surface, mMediaRecorderSurface),
-                        mSessionCallback, null);
+                        mSessionCallback, mCameraHandler);
                 mMediaRecorder.start();
                 mIsRecording = true;
                 return true;
@@ -679,7 +703,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
             updateFocusDepth();
             try {
                 mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                        mCaptureCallback, null);
+                        mCaptureCallback, mCameraHandler);
             } catch (CameraAccessException e) {
                 mFocusDepth = saved;  // Revert
             }
@@ -707,7 +731,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
             updateZoom();
             try {
                 mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                        mCaptureCallback, null);
+                        mCaptureCallback, mCameraHandler);
             } catch (CameraAccessException e) {
                 mZoom = saved;  // Revert
             }
@@ -735,7 +759,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
             updateWhiteBalance();
             try {
                 mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(),
-                        mCaptureCallback, null);
+                        mCaptureCallback, mCameraHandler);
             } catch (CameraAccessException e) {
                 mWhiteBalance = saved;  // Revert
             }
@@ -766,6 +790,31 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
         startCaptureSession();
     }
 
+    @Override
+    void setMinAnalysisSize(int size) {
+        if (mMinAnalysisSize == size) {
+            return;
+        }
+        mMinAnalysisSize = size;
+
+        // it may be called from another thread, so restart the session (which resizes the scan stream) on the camera thread
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCaptureSession != null) {
+                    mCaptureSession.close();
+                    mCaptureSession = null;
+                    startCaptureSession();
+                }
+            }
+        });
+    }
+
+    @Override
+    int getMinAnalysisSize() {
+        return mMinAnalysisSize;
+    }
+
     @Override
     boolean getScanning() {
         return mIsScanning;
@@ -921,6 +970,12 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
                 Timber.tag(TAG).d(String.format("collectCameraInfo 2 - skipping preview size: %d x %d ==> %s", width, height, AspectRatio.of(width, height)));
             }
         }
+        mAnalysisSizes.clear();
+        for (android.util.Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+            if (size.getWidth() <= MAX_PREVIEW_WIDTH && size.getHeight() <= MAX_PREVIEW_HEIGHT) {
+                mAnalysisSizes.add(new Size(size.getWidth(), size.getHeight()));
+            }
+        }
         mPictureSizes.clear();
         collectPictureSizes(mPictureSizes, map);
         if (mPictureSize == null) {
@@ -967,37 +1022,43 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
         }
     }
     private void prepareStillImageReader() {
-        if (mStillImageReader != null) {
-            mStillImageReader.close();
-        }
-        Timber.tag(TAG).d("prepareScanImageReader");
+        closeImageReader(mStillImageReader);
+        Timber.tag(TAG).d("prepareStillImageReader");
         mStillImageReader = ImageReader.newInstance(mPictureSize.getWidth(), mPictureSize.getHeight(),
                 ImageFormat.JPEG, 1);
-        mStillImageReader.setOnImageAvailableListener(mOnImageAvailableListener, null);
+        mStillImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mImageReaderHandler);
     }
 
     private void prepareScanImageReader() {
         Timber.tag(TAG).d("prepareScanImageReader");
 
-        if (mScanImageReader != null) {
-            mScanImageReader.close();
+        closeImageReader(mScanImageReader);
+        // Only as large as the analysis needs (not the largest preview size)
+        Size size = solveStreamConfiguration().analysis;
+        Timber.tag(TAG).d("prepareScanImageReader - " + size);
+        mScanImageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+                ImageFormat.YUV_420_888, 1);
+        mScanImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mImageReaderHandler);
+    }
+
+    /**
+     * Closes an image reader on the image reader thread, once it's done with the image it may be processing - closing
+     * it from another thread would free the buffers of an image that's still being read.
+     */
+    private void closeImageReader(final ImageReader reader) {
+        if (reader == null) {
+            return;
         }
-        Size largest = mPreviewSizes.sizes(mAspectRatio).last();
-        if (largest == null) {
-            Iterator<Size> iterator = mPreviewSizes.sizes(mAspectRatio).iterator();
-            Size nextLargest = null;
-            while ((nextLargest == null) && iterator.hasNext()) {
-                nextLargest = iterator.next();
-            }
-            if (nextLargest == null) {
-                largest = mPictureSize;
-            } else {
-                largest = nextLargest;
+        boolean posted = mImageReaderHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                reader.close();
             }
+        });
+        if (!posted) {
+            // The image reader thread is gone, so none of its images can be in use anymore
+            reader.close();
         }
-        mScanImageReader = ImageReader.newInstance(largest.getWidth(), largest.getHeight(),
-                ImageFormat.YUV_420_888, 1);
-        mScanImageReader.setOnImageAvailableListener(mOnImageAvailableListener, null);
     }
 
     /**
@@ -1007,7 +1068,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
     private void startOpeningCamera() {
         try {
             Timber.tag(TAG).d("startOpeningCamera - " + mCameraId);
-            mCameraManager.openCamera(mCameraId, mCameraDeviceCallback, null);
+            mCameraManager.openCamera(mCameraId, mCameraDeviceCallback, mCameraHandler);
         } catch (CameraAccessException e) {
             Timber.tag(TAG).e("startOpeningCamera Error - " + e);
             throw new RuntimeException("Failed to open camera: " + mCameraId, e);
@@ -1025,9 +1086,29 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
             return;
         }
         Timber.tag(TAG).d("startCaptureSession 2 - " + mIsScanning);
-        Size previewSize = chooseOptimalSize();
+        StreamConfigurationSolver.Configuration configuration = solveStreamConfiguration();
+        Size previewSize = configuration.preview;
         mPreview.setBufferSize(previewSize.getWidth(), previewSize.getHeight());
         Surface surface = getPreviewSurface();
+        ImageReader replacedScanImageReader = null;
+        if ((mScanImageReader.getWidth() != configuration.analysis.getWidth()) ||
+                (mScanImageReader.getHeight() != configuration.analysis.getHeight())) {
+            if (Looper.myLooper() != mCameraHandler.getLooper()) {
+                // Only replace the scan reader on the camera thread, where the sessions using it are handled
+                mCameraHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        startCaptureSession();
+                    }
+                });
+                return;
+            }
+            // The preview size changed (now that the surface is laid out), and the analysis size with it. The old
+            // reader may still be a target of the previous session, so it's only closed once the new one is set up.
+            replacedScanImageReader = mScanImageReader;
+            mScanImageReader = null;
+            prepareScanImageReader();
+        }
         try {
             mPreviewRequestBuilder = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             mPreviewRequestBuilder.addTarget(surface);
@@ -1039,14 +1120,53 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
                 return;
             }
 
+            CameraCaptureSession.StateCallback sessionCallback = mSessionCallback;
+            if (replacedScanImageReader != null) {
+                sessionCallback = new ReplacedReaderSessionCallback(replacedScanImageReader);
+            }
             mCamera.createCaptureSession(Arrays.asList(surface, mStillImageReader.getSurface(),
-                    mScanImageReader.getSurface()), mSessionCallback, null);
+                    mScanImageReader.getSurface()), sessionCallback, mCameraHandler);
+            // The session callback closes it from here on
+            replacedScanImageReader = null;
         } catch (IllegalStateException e) {
             Timber.tag(TAG).d("startCaptureSession error " + e);
             mCallback.onMountError(e);
         } catch (CameraAccessException e) {
             Timber.tag(TAG).d("startCaptureSession error " + e);
             mCallback.onMountError(e);
+        } finally {
+            // No session was created to replace it
+            closeImageReader(replacedScanImageReader);
+        }
+    }
+
+    /**
+     * Session callback ({@link #mSessionCallback}) that also closes the scan reader the new session replaces. Once
+     * the new session is configured (or failed to), the camera is done with the previous sessions - the reader isn't
+     * a target anymore.
+     */
+    private class ReplacedReaderSessionCallback extends CameraCaptureSession.StateCallback {
+        private final ImageReader mReplacedReader;
+
+        ReplacedReaderSessionCallback(ImageReader replacedReader) {
+            mReplacedReader = replacedReader;
+        }
+
+        @Override
+        public void onConfigured(@NonNull CameraCaptureSession session) {
+            closeImageReader(mReplacedReader);
+            mSessionCallback.onConfigured(session);
+        }
+
+        @Override
+        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+            closeImageReader(mReplacedReader);
+            mSessionCallback.onConfigureFailed(session);
+        }
+
+        @Override
+        public void onClosed(@NonNull CameraCaptureSession session) {
+            mSessionCallback.onClosed(session);
         }
     }
 
@@ -1081,9 +1201,8 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
             mPreviewSurface = null;
         }
 
-        // it may be called from another thread, so make sure we're in main looper
-        Handler handler = new Handler(Looper.getMainLooper());
-        handler.post(new Runnable() {
+        // it may be called from another thread, so restart the session on the camera thread
+        mCameraHandler.post(new Runnable() {
             @Override
             public void run() {
                 Timber.tag(TAG).d("setPreviewTexture 2 - " + mCaptureSession);
@@ -1108,26 +1227,15 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
      * @return The picked size for camera preview.
      */
     private Size chooseOptimalSize() {
-        int surfaceLonger, surfaceShorter;
-        final int surfaceWidth = mPreview.getWidth();
-        final int surfaceHeight = mPreview.getHeight();
-        if (surfaceWidth < surfaceHeight) {
-            surfaceLonger = surfaceHeight;
-            surfaceShorter = surfaceWidth;
-        } else {
-            surfaceLonger = surfaceWidth;
-            surfaceShorter = surfaceHeight;
-        }
-        SortedSet<Size> candidates = mPreviewSizes.sizes(mAspectRatio);
+        return solveStreamConfiguration().preview;
+    }
 
-        // Pick the smallest of those big enough
-        for (Size size : candidates) {
-            if (size.getWidth() >= surfaceLonger && size.getHeight() >= surfaceShorter) {
-                return size;
-            }
-        }
-        // If no size is big enough, pick the largest one.
-        return candidates.last();
+    /**
+     * Chooses the preview and analysis sizes together (see {@link StreamConfigurationSolver}).
+     */
+    private StreamConfigurationSolver.Configuration solveStreamConfiguration() {
+        return STREAM_SOLVER.solve(mCameraId, mPreviewSizes, mAnalysisSizes, mAspectRatio,
+                mPreview.getWidth(), mPreview.getHeight(), mMinAnalysisSize);
     }
 
     /**
@@ -1319,7 +1427,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
             Timber.tag(TAG).d("lockFocus 2");
             mCaptureCallback.setState(PictureCaptureCallback.STATE_LOCKING);
             Timber.tag(TAG).d("lockFocus 3 - " + mCaptureSession);
-            if (mCaptureSession != null) mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+            if (mCaptureSession != null) mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, mCameraHandler);
             Timber.tag(TAG).d("lockFocus 4");
         } catch (CameraAccessException e) {
             Timber.tag(TAG).e("Failed to lock focus.", e);
@@ -1361,7 +1469,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
                         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                                 CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
                         mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback,
-                                null);
+                                mCameraHandler);
                         mCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
                     } catch (Exception e) {
                         Timber.tag(TAG).e("Failed to manual focus.", e);
@@ -1388,7 +1496,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_CANCEL);
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_OFF);
         try {
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), captureCallbackHandler, null);
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), captureCallbackHandler, mCameraHandler);
         } catch (CameraAccessException e) {
             Timber.tag(TAG).e("Failed to manual focus.", e);
         }
@@ -1406,7 +1514,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
 
         Timber.tag(TAG).d("setFocusArea 6");
         try {
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), captureCallbackHandler, null);
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), captureCallbackHandler, mCameraHandler);
         } catch (CameraAccessException e) {
             Timber.tag(TAG).e("Failed to manual focus.", e);
         }
@@ -1531,7 +1639,7 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
                                 unlockFocus();
                             }
                         }
-                    }, null);
+                    }, mCameraHandler);
             Timber.tag(TAG).d("captureStillPicture 5");
         } catch (CameraAccessException e) {
             Timber.tag(TAG).e("Cannot capture a still picture.", e);
@@ -1650,23 +1758,25 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
         mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
                 CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
         try {
-            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, null);
+            mCaptureSession.capture(mPreviewRequestBuilder.build(), mCaptureCallback, mCameraHandler);
             updateAutoFocus();
             updateFlash();
             if (mIsScanning) {
-                Timber.tag(TAG).d("unlockFocus 2");
                 mImageFormat = ImageFormat.YUV_420_888;
-                startCaptureSession();
-            } else {
-                Timber.tag(TAG).d("unlockFocus 3");
-                mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
-                        CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
-                mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback,
-                        null);
-                mCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
             }
+            // The session is still configured with every stream (and the preview request still targets the scan
+            // stream when scanning), so restoring the repeating request is enough - no need to rebuild the session
+            Timber.tag(TAG).d("unlockFocus 2 - " + mIsScanning);
+            mPreviewRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER,
+                    CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+            mCaptureSession.setRepeatingRequest(mPreviewRequestBuilder.build(), mCaptureCallback,
+                    mCameraHandler);
+            mCaptureCallback.setState(PictureCaptureCallback.STATE_PREVIEW);
         } catch (CameraAccessException e) {
             Timber.tag(TAG).e("Failed to restart camera preview.", e);
+        } catch (IllegalStateException e) {
+            // The session was closed in the meantime - the next session starts its own preview
+            Timber.tag(TAG).e("Failed to restart camera preview (session closed).", e);
         }
     }
 
@@ -1727,6 +1837,10 @@ class Camera2 extends CameraViewImpl implements MediaRecorder.OnInfoListener, Me
         }
 
         private void process(@NonNull CaptureResult result) {
+            if (mState == STATE_PREVIEW) {
+                // Called for every preview frame - nothing to do (or log)
+                return;
+            }
             Timber.tag(TAG).d("process: " + mState + ":" + result);
             switch (mState) {
                 case STATE_LOCKING: {
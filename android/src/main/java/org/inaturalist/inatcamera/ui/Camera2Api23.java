@@ -28,8 +28,9 @@ import timber.log.*;
 class Camera2Api23 extends Camera2 {
     private static final String TAG = "Camera2Api23";
 
-    Camera2Api23(Callback callback, PreviewImpl preview, Context context, Handler bgHandler) {
-        super(callback, preview, context, bgHandler);
+    Camera2Api23(Callback callback, PreviewImpl preview, Context context, Handler bgHandler,
+                 Handler cameraHandler, Handler imageReaderHandler) {
+        super(callback, preview, context, bgHandler, cameraHandler, imageReaderHandler);
     }
 
     @Override
@@ -0,0 +1,127 @@
+package org.inaturalist.inatcamera.ui;
+
+import android.media.Image;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A copy of a camera frame delivered to a {@link CameraView.FrameListener}: all of its planes (with their strides),
+ * copied out of the camera's image into pooled direct buffers. Frames are borrowed - listeners must call
+ * {@link #release()} once done with a frame (from any thread), and must not use it (or modify its planes) afterwards.
+ */
+public class CameraFrame {
+    private static final int MAX_PLANES = 3;
+
+    private final FrameDispatcher mDispatcher;
+    private final AtomicInteger mRefCount = new AtomicInteger();
+
+    private final ByteBuffer[] mPlanes = new ByteBuffer[MAX_PLANES];
+    private final int[] mRowStrides = new int[MAX_PLANES];
+    private final int[] mPixelStrides = new int[MAX_PLANES];
+    private int mPlaneCount;
+
+    private int mFormat;
+    private int mWidth;
+    private int mHeight;
+    private long mTimestamp;
+    private int mOrientation;
+
+    CameraFrame(FrameDispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    /** The image format (e.g. ImageFormat.YUV_420_888) */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** The frame timestamp, in nanoseconds (see Image.getTimestamp) */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /** The display orientation at the time of the frame */
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    public int getPlaneCount() {
+        return mPlaneCount;
+    }
+
+    /** The data of a plane - read it with absolute gets only (it's shared with the other listeners) */
+    public ByteBuffer getPlane(int plane) {
+        return mPlanes[plane];
+    }
+
+    public int getRowStride(int plane) {
+        return mRowStrides[plane];
+    }
+
+    public int getPixelStride(int plane) {
+        return mPixelStrides[plane];
+    }
+
+    /** Keeps the frame from being recycled until a matching {@link #release()} */
+    public void retain() {
+        mRefCount.incrementAndGet();
+    }
+
+    /** Gives the frame back (once every holder released it, it's reused for a new frame) */
+    public void release() {
+        int refCount = mRefCount.decrementAndGet();
+        if (refCount == 0) {
+            mDispatcher.recycle(this);
+        } else if (refCount < 0) {
+            mRefCount.incrementAndGet();
+            throw new IllegalStateException("CameraFrame released more times than it was retained");
+        }
+    }
+
+    /** Copies an image into the frame's buffers (growing them if needed) */
+    boolean copyFrom(Image image, int orientation) {
+        Image.Plane[] planes;
+        try {
+            planes = image.getPlanes();
+        } catch (RuntimeException exc) {
+            return false;
+        }
+        if (planes.length > MAX_PLANES) return false;
+
+        for (int i = 0; i < planes.length; i++) {
+            ByteBuffer source = planes[i].getBuffer();
+            int position = source.position();
+            int size = source.remaining();
+
+            ByteBuffer plane = mPlanes[i];
+            if ((plane == null) || (plane.capacity() < size)) {
+                plane = ByteBuffer.allocateDirect(size);
+                mPlanes[i] = plane;
+            }
+            plane.clear();
+            plane.put(source);
+            plane.flip();
+            source.position(position);
+
+            mRowStrides[i] = planes[i].getRowStride();
+            mPixelStrides[i] = planes[i].getPixelStride();
+        }
+
+        mPlaneCount = planes.length;
+        mFormat = image.getFormat();
+        mWidth = image.getWidth();
+        mHeight = image.getHeight();
+        mTimestamp = image.getTimestamp();
+        mOrientation = orientation;
+        return true;
+    }
+}
@@ -30,6 +30,7 @@ import android.content.Context;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.media.CamcorderProfile;
+import android.media.Image;
 import android.os.Build;
 import android.os.HandlerThread;
 import android.os.Handler;
@@ -54,11 +55,11 @@ import com.facebook.react.bridge.ReadableMap;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 import android.widget.RelativeLayout;
 import android.widget.LinearLayout;
 import android.widget.FrameLayout;
@@ -104,6 +105,10 @@ public class CameraView extends FrameLayout implements OnTouchListener {
 
     private final CallbackBridge mCallbacks;
 
+    private final FrameDispatcher mFrameDispatcher = new FrameDispatcher();
+
+    private boolean mScanningRequested;
+
     private boolean mAdjustViewBounds;
 
     private Context mContext;
@@ -115,6 +120,10 @@ public class CameraView extends FrameLayout implements OnTouchListener {
     protected HandlerThread mBgThread;
     protected Handler mBgHandler;
 
+    // camera callbacks and frames are delivered on their own threads, never on the main thread
+    private HandlerThread mCameraThread;
+    private HandlerThread mImageReaderThread;
+
     protected float mPreviousFingerSpacing = 0;
 
     public CameraView(Context context, boolean fallbackToOldApi) {
@@ -134,6 +143,12 @@ public class CameraView extends FrameLayout implements OnTouchListener {
         mBgThread.start();
         mBgHandler = new Handler(mBgThread.getLooper());
 
+        mCameraThread = new HandlerThread("RNCamera-Camera-Thread");
+        mCameraThread.start();
+        mImageReaderThread = new HandlerThread("RNCamera-ImageReader-Thread");
+        mImageReaderThread.start();
+        Handler cameraHandler = new Handler(mCameraThread.getLooper());
+        Handler imageReaderHandler = new Handler(mImageReaderThread.getLooper());
 
         if (isInEditMode()){
             mCallbacks = null;
@@ -148,9 +163,9 @@ public class CameraView extends FrameLayout implements OnTouchListener {
         mCallbacks = new CallbackBridge();
         Timber.tag(TAG).d("CameraView ctor - " + preview);
         if (Build.VERSION.SDK_INT < 23) {
-            mImpl = new Camera2(mCallbacks, preview, context, mBgHandler);
+            mImpl = new Camera2(mCallbacks, preview, context, mBgHandler, cameraHandler, imageReaderHandler);
         } else {
-            mImpl = new Camera2Api23(mCallbacks, preview, context, mBgHandler);
+            mImpl = new Camera2Api23(mCallbacks, preview, context, mBgHandler, cameraHandler, imageReaderHandler);
         }
 
         // Display orientation detector
@@ -173,6 +188,14 @@ public class CameraView extends FrameLayout implements OnTouchListener {
             mBgThread.quitSafely();
             mBgThread = null;
         }
+        if(mCameraThread != null){
+            mCameraThread.quitSafely();
+            mCameraThread = null;
+        }
+        if(mImageReaderThread != null){
+            mImageReaderThread.quitSafely();
+            mImageReaderThread = null;
+        }
     }
 
     @NonNull
@@ -313,7 +336,12 @@ public class CameraView extends FrameLayout implements OnTouchListener {
     public void start() {
         Timber.tag(TAG).d("CameraView - start 1");
 
-        if (!mImpl.start()) {
+        MainThreadMonitor monitor = mImpl.getMainThreadMonitor();
+        long startTime = monitor.begin();
+        boolean started = mImpl.start();
+        monitor.end(startTime);
+
+        if (!started) {
             Timber.tag(TAG).d("CameraView - start 2");
             if (mImpl.getView() != null) {
                 Handler mainHandler = new Handler(mContext.getMainLooper());
@@ -334,7 +362,10 @@ public class CameraView extends FrameLayout implements OnTouchListener {
      */
     public void stop() {
         Timber.tag(TAG).d("CameraView - stop 1");
+        MainThreadMonitor monitor = mImpl.getMainThreadMonitor();
+        long startTime = monitor.begin();
         mImpl.stop();
+        monitor.end(startTime);
     }
 
     /**
@@ -590,10 +621,55 @@ public class CameraView extends FrameLayout implements OnTouchListener {
         return mImpl.getWhiteBalance();
     }
 
-    public void setScanning(boolean isScanning) { mImpl.setScanning(isScanning);}
+    public void setScanning(boolean isScanning) {
+        mScanningRequested = isScanning;
+        updateScanning();
+    }
+
+    /** The scan stream is needed either when requested or to feed the frame listeners */
+    private void updateScanning() {
+        mImpl.setScanning(mScanningRequested || mFrameDispatcher.hasListeners());
+    }
+
+    /**
+     * Registers a listener for the scan stream frames (opt-in - frames are only copied while there are listeners).
+     * Frames are delivered on the given handler, and must be released by the listener. Only
+     * ImageFormat.YUV_420_888 is supported.
+     */
+    public void addFrameListener(FrameListener listener, int format, Handler handler) {
+        mFrameDispatcher.addListener(listener, format, handler);
+        updateScanning();
+    }
+
+    public void removeFrameListener(FrameListener listener) {
+        mFrameDispatcher.removeListener(listener);
+        updateScanning();
+    }
+
+    /** Time spent by camera code on the main thread (instrumentation) */
+    public MainThreadMonitor getMainThreadMonitor() {
+        return mImpl.getMainThreadMonitor();
+    }
+
+    /** How many frames were dropped before reaching the frame listeners */
+    public long getDroppedFrameCount() {
+        return mFrameDispatcher.getDroppedCount();
+    }
 
     public boolean getScanning() { return mImpl.getScanning(); }
 
+    /**
+     * Sets the shorter side (in pixels) the scan stream frames need - the scan stream is sized to the smallest size
+     * that covers it. 0 (the default) sizes it like the preview.
+     */
+    public void setMinAnalysisSize(int size) {
+        mImpl.setMinAnalysisSize(size);
+    }
+
+    public int getMinAnalysisSize() {
+        return mImpl.getMinAnalysisSize();
+    }
+
     /**
      * Take a picture. The result will be returned to
      * {@link Callback#onPictureTaken(CameraView, byte[], int)}.
@@ -637,9 +713,10 @@ public class CameraView extends FrameLayout implements OnTouchListener {
 
     private class CallbackBridge implements CameraViewImpl.Callback {
 
-        private final ArrayList<Callback> mCallbacks = new ArrayList<>();
+        // Iterated on the camera threads
+        private final CopyOnWriteArrayList<Callback> mCallbacks = new CopyOnWriteArrayList<>();
 
-        private boolean mRequestLayoutOnOpen;
+        private volatile boolean mRequestLayoutOnOpen;
 
         CallbackBridge() {
         }
@@ -656,7 +733,13 @@ public class CameraView extends FrameLayout implements OnTouchListener {
         public void onCameraOpened() {
             if (mRequestLayoutOnOpen) {
                 mRequestLayoutOnOpen = false;
-                requestLayout();
+                // Camera callbacks arrive on the camera thread
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        requestLayout();
+                    }
+                });
             }
             for (Callback callback : mCallbacks) {
                 callback.onCameraOpened(CameraView.this);
@@ -685,9 +768,10 @@ public class CameraView extends FrameLayout implements OnTouchListener {
         }
 
         @Override
-        public void onFramePreview(byte[] data, int width, int height, int orientation) {
+        public void onPreviewImage(Image image, int orientation) {
+            mFrameDispatcher.dispatch(image, orientation);
             for (Callback callback : mCallbacks) {
-                callback.onFramePreview(CameraView.this, data, width, height, orientation);
+                callback.onPreviewImage(CameraView.this, image, orientation);
             }
         }
 
@@ -783,7 +867,8 @@ public class CameraView extends FrameLayout implements OnTouchListener {
     }
 
     /**
-     * Callback for monitoring events about {@link CameraView}.
+     * Callback for monitoring events about {@link CameraView}. Methods are called on the camera thread (or the
+     * image reader thread for frames) - not on the main thread.
      */
     @SuppressWarnings("UnusedParameters")
     public abstract static class Callback {
@@ -822,12 +907,32 @@ public class CameraView extends FrameLayout implements OnTouchListener {
         public void onVideoRecorded(CameraView cameraView, String path, int videoOrientation, int deviceOrientation) {
         }
 
-        public void onFramePreview(CameraView cameraView, byte[] data, int width, int height, int orientation) {
+        /**
+         * Called for each frame of the scan (YUV_420_888) stream, when scanning is enabled.
+         *
+         * @param cameraView The associated {@link CameraView}.
+         * @param image      The frame - only valid until this method returns.
+         */
+        public void onPreviewImage(CameraView cameraView, Image image, int orientation) {
         }
 
         public void onMountError(CameraView cameraView, Exception exc) {}
     }
 
+    /**
+     * Listener for the frames of the scan stream (see {@link #addFrameListener(FrameListener, int, Handler)}).
+     */
+    public interface FrameListener {
+
+        /**
+         * Called with the latest frame - {@link CameraFrame#release()} must be called once done with it (if this
+         * throws, the frame is released by the caller instead).
+         *
+         * @param frame The frame (a copy of the camera's image, borrowed from a pool).
+         */
+        void onFrame(CameraFrame frame);
+    }
+
     private float getFingerSpacing(MotionEvent event) {
         float x = event.getX(0) - event.getX(1);
         float y = event.getY(0) - event.getY(1);
@@ -17,6 +17,7 @@
 package org.inaturalist.inatcamera.ui;
 
 import android.media.CamcorderProfile;
+import android.media.Image;
 import android.view.View;
 import android.graphics.SurfaceTexture;
 import android.os.Handler;
@@ -42,12 +43,19 @@ abstract class CameraViewImpl {
     // by itself.
     protected final Handler mBgHandler;
 
+    // Time spent by the implementation on the main thread (instrumentation)
+    protected final MainThreadMonitor mMainThreadMonitor = new MainThreadMonitor();
+
     CameraViewImpl(Callback callback, PreviewImpl preview, Handler bgHandler) {
         mCallback = callback;
         mPreview = preview;
         mBgHandler = bgHandler;
     }
 
+    MainThreadMonitor getMainThreadMonitor() {
+        return mMainThreadMonitor;
+    }
+
     View getView() {
         return mPreview.getView();
     }
@@ -136,6 +144,10 @@ abstract class CameraViewImpl {
 
     abstract boolean getScanning();
 
+    abstract void setMinAnalysisSize(int size);
+
+    abstract int getMinAnalysisSize();
+
     abstract public void resumePreview();
 
     abstract public void pausePreview();
@@ -154,7 +166,7 @@ abstract class CameraViewImpl {
 
         void onVideoRecorded(String path, int videoOrientation, int deviceOrientation);
 
-        void onFramePreview(byte[] data, int width, int height, int orientation);
+        void onPreviewImage(Image image, int orientation);
 
         void onMountError(Exception exc);
     }
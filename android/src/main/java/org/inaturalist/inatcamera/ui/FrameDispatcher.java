@@ -0,0 +1,144 @@
+package org.inaturalist.inatcamera.ui;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+import android.os.Handler;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Delivers scan stream frames to the registered {@link CameraView.FrameListener}s. Each frame is copied once (only
+ * if there are listeners) into a ring of pooled direct buffers, shared by all listeners, so the camera's image can be
+ * closed right away. Each listener has a single pending frame: if a listener falls behind, its oldest (undelivered)
+ * frame is dropped. If a listener throws, the frame it was given is released for it.
+ */
+class FrameDispatcher {
+    /** Frames in the ring, on top of two per listener (one pending, one being processed) */
+    private static final int EXTRA_FRAMES = 1;
+
+    private final CopyOnWriteArrayList<Subscription> mSubscriptions = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<CameraFrame> mFreeFrames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mFrameCount = new AtomicInteger();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    /** A registered listener, along with its pending frame */
+    private class Subscription implements Runnable {
+        final CameraView.FrameListener listener;
+        final Handler handler;
+        final AtomicReference<CameraFrame> pending = new AtomicReference<>();
+        volatile boolean cancelled;
+
+        Subscription(CameraView.FrameListener listener, Handler handler) {
+            this.listener = listener;
+            this.handler = handler;
+        }
+
+        void offer(CameraFrame frame) {
+            frame.retain();
+            CameraFrame previous = pending.getAndSet(frame);
+            if (previous != null) {
+                // Listener fell behind - drop its oldest frame
+                mDroppedCount.incrementAndGet();
+                previous.release();
+            } else {
+                handler.post(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            CameraFrame frame = pending.getAndSet(null);
+            if (frame == null) return;
+
+            if (cancelled) {
+                frame.release();
+                return;
+            }
+
+            // The listener owns the frame from here on - unless it throws before taking it
+            boolean delivered = false;
+            try {
+                listener.onFrame(frame);
+                delivered = true;
+            } finally {
+                if (!delivered) {
+                    frame.release();
+                }
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            CameraFrame frame = pending.getAndSet(null);
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+
+    void addListener(CameraView.FrameListener listener, int format, Handler handler) {
+        if (format != ImageFormat.YUV_420_888) {
+            throw new IllegalArgumentException("Unsupported frame format: " + format);
+        }
+        mSubscriptions.add(new Subscription(listener, handler));
+    }
+
+    void removeListener(CameraView.FrameListener listener) {
+        for (Subscription subscription : mSubscriptions) {
+            if (subscription.listener == listener) {
+                mSubscriptions.remove(subscription);
+                subscription.cancel();
+            }
+        }
+    }
+
+    boolean hasListeners() {
+        return !mSubscriptions.isEmpty();
+    }
+
+    /** How many frames were dropped (listeners falling behind, or all frames of the ring borrowed) */
+    long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /** Copies a scan stream image into a frame of the ring and offers it to each listener */
+    void dispatch(Image image, int orientation) {
+        if (mSubscriptions.isEmpty()) return;
+
+        CameraFrame frame = obtainFrame();
+        if (frame == null) {
+            // Every frame of the ring is borrowed
+            mDroppedCount.incrementAndGet();
+            return;
+        }
+
+        // Hold the frame while offering it, so it isn't recycled before every listener got it
+        frame.retain();
+        if (frame.copyFrom(image, orientation)) {
+            for (Subscription subscription : mSubscriptions) {
+                subscription.offer(frame);
+            }
+        }
+        frame.release();
+    }
+
+    private CameraFrame obtainFrame() {
+        CameraFrame frame = mFreeFrames.poll();
+        if (frame != null) return frame;
+
+        int maxFrames = 2 * mSubscriptions.size() + EXTRA_FRAMES;
+        while (true) {
+            int count = mFrameCount.get();
+            if (count >= maxFrames) return null;
+            if (mFrameCount.compareAndSet(count, count + 1)) return new CameraFrame(this);
+        }
+    }
+
+    void recycle(CameraFrame frame) {
+        mFreeFrames.offer(frame);
+    }
+}
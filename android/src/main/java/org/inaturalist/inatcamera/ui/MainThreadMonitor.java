@@ -0,0 +1,51 @@
+package org.inaturalist.inatcamera.ui;
+
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the time camera code spends on the main thread (which should be close to none, since camera callbacks
+ * run on their own threads). Wrap a section with {@link #begin()} / {@link #end(long)} - sections that run on other
+ * threads aren't counted.
+ */
+public class MainThreadMonitor {
+    private final AtomicLong mCallCount = new AtomicLong();
+    private final AtomicLong mTotalTime = new AtomicLong();
+    private final AtomicLong mMaxTime = new AtomicLong();
+
+    /** Returns the section start time, or 0 if not on the main thread */
+    long begin() {
+        if (Looper.myLooper() != Looper.getMainLooper()) return 0;
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    void end(long startTime) {
+        if (startTime == 0) return;
+
+        long time = SystemClock.elapsedRealtimeNanos() - startTime;
+        mCallCount.incrementAndGet();
+        mTotalTime.addAndGet(time);
+
+        long maxTime = mMaxTime.get();
+        while ((time > maxTime) && !mMaxTime.compareAndSet(maxTime, time)) {
+            maxTime = mMaxTime.get();
+        }
+    }
+
+    /** How many camera sections ran on the main thread */
+    public long getCallCount() {
+        return mCallCount.get();
+    }
+
+    /** Total main thread time spent in camera code, in ms */
+    public double getTotalTime() {
+        return mTotalTime.get() / 1000000.0;
+    }
+
+    /** Longest single main thread camera section, in ms */
+    public double getMaxTime() {
+        return mMaxTime.get() / 1000000.0;
+    }
+}
@@ -0,0 +1,111 @@
+package org.inaturalist.inatcamera.ui;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedSet;
+
+/**
+ * Picks the preview and analysis (scan stream) sizes of a camera together. The analysis stream only needs to
+ * cover the model input once center cropped, so it's the smallest size (of the preview aspect ratio) whose shorter
+ * side is at least the requested analysis size - never larger than the preview, which keeps the stream combination
+ * within what every camera (even LEGACY ones) supports. Solved configurations are cached per camera ID.
+ *
+ * The still (JPEG) stream isn't part of the solution: with the analysis stream no larger than the preview, every
+ * camera supports a JPEG stream of any of its sizes alongside them, so it simply uses the picture size.
+ */
+class StreamConfigurationSolver {
+
+    /** The sizes of the preview and analysis streams (the still stream uses the picture size) */
+    static class Configuration {
+        final Size preview;
+        final Size analysis;
+
+        Configuration(Size preview, Size analysis) {
+            this.preview = preview;
+            this.analysis = analysis;
+        }
+
+        @Override
+        public String toString() {
+            return "preview = " + preview + "; analysis = " + analysis;
+        }
+    }
+
+    /** Solved configurations, least recently used first - bounded, since every new surface size adds one */
+    private static final int MAX_CACHED_CONFIGURATIONS = 16;
+    private final Map<String, Configuration> mCache = new LinkedHashMap<String, Configuration>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Configuration> eldest) {
+            return size() > MAX_CACHED_CONFIGURATIONS;
+        }
+    };
+
+    /**
+     * Solves the stream sizes of a camera.
+     *
+     * @param previewSizes    Sizes supported by the preview surface.
+     * @param analysisSizes   Sizes supported by the analysis (YUV) stream - preview sizes are used when the aspect
+     *                        ratio has none.
+     * @param minAnalysisSize Shorter side the analysis frames need (0 to use the preview size).
+     */
+    synchronized Configuration solve(String cameraId, SizeMap previewSizes, SizeMap analysisSizes, AspectRatio ratio,
+                                     int surfaceWidth, int surfaceHeight, int minAnalysisSize) {
+        String key = cameraId + ":" + ratio + ":" + surfaceWidth + "x" + surfaceHeight + ":" + minAnalysisSize;
+        Configuration configuration = mCache.get(key);
+        if (configuration != null) {
+            return configuration;
+        }
+
+        Size preview = choosePreviewSize(previewSizes.sizes(ratio), surfaceWidth, surfaceHeight);
+
+        SortedSet<Size> analysisCandidates = analysisSizes.sizes(ratio);
+        if ((analysisCandidates == null) || analysisCandidates.isEmpty()) {
+            analysisCandidates = previewSizes.sizes(ratio);
+        }
+        Size analysis = chooseAnalysisSize(analysisCandidates, preview, minAnalysisSize);
+
+        configuration = new Configuration(preview, analysis);
+        mCache.put(key, configuration);
+        return configuration;
+    }
+
+    /**
+     * Chooses the smallest preview size that covers the surface (or the largest one, if none does).
+     */
+    static Size choosePreviewSize(SortedSet<Size> candidates, int surfaceWidth, int surfaceHeight) {
+        int surfaceLonger = Math.max(surfaceWidth, surfaceHeight);
+        int surfaceShorter = Math.min(surfaceWidth, surfaceHeight);
+
+        // Pick the smallest of those big enough
+        for (Size size : candidates) {
+            if (size.getWidth() >= surfaceLonger && size.getHeight() >= surfaceShorter) {
+                return size;
+            }
+        }
+        // If no size is big enough, pick the largest one.
+        return candidates.last();
+    }
+
+    /**
+     * Chooses the smallest analysis size whose shorter side covers minSize, without going over the preview size.
+     */
+    static Size chooseAnalysisSize(SortedSet<Size> candidates, Size preview, int minSize) {
+        if (minSize <= 0) {
+            minSize = Math.min(preview.getWidth(), preview.getHeight());
+        }
+
+        Size largest = null;
+        for (Size size : candidates) {
+            if ((size.getWidth() > preview.getWidth()) || (size.getHeight() > preview.getHeight())) {
+                continue;
+            }
+            if (Math.min(size.getWidth(), size.getHeight()) >= minSize) {
+                return size;
+            }
+            largest = size;
+        }
+
+        // Nothing is big enough - use the largest one that fits the preview
+        return largest != null ? largest : preview;
+    }
+}
@@ -0,0 +1,66 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks getting the ancestor IDs of 64 predictions (leaves of a depth 7 taxonomy) for serializing them: the
+ * precomputed arrays against walking up the parent chain. Run with ./gradlew jmh -Pjmh.include=AncestorIdsBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AncestorIdsBenchmark {
+    private Node[] mNodes;
+
+    @Setup
+    public void setUp() throws Exception {
+        Taxonomy taxonomy = SyntheticTaxonomy.create(7, 4);
+
+        // Leaves spread over the tree (the deepest nodes are the most expensive to walk up from)
+        mNodes = new Node[64];
+        int step = taxonomy.getModelSize() / mNodes.length;
+        for (int i = 0, leaf = 0; (i < taxonomy.mStore.size()) && (leaf < mNodes.length * step); i++) {
+            if (taxonomy.mLeafOutputIndex[i] < 0) continue;
+            if (leaf % step == 0) {
+                mNodes[leaf / step] = taxonomy.getNode(i);
+            }
+            leaf++;
+        }
+    }
+
+    @Benchmark
+    public int precomputed() {
+        int sum = 0;
+        for (Node node : mNodes) {
+            for (int id : node.ancestorIds) {
+                sum += id;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int parentWalk() {
+        int sum = 0;
+        for (Node node : mNodes) {
+            for (int id : AncestorIdsTest.walkAncestorIds(node)) {
+                sum += id;
+            }
+        }
+        return sum;
+    }
+}
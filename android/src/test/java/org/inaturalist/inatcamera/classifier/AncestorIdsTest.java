@@ -0,0 +1,71 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/** Checks the taxon and ancestor IDs precomputed for serializing predictions (see RNCameraView.nodeToMap) */
+public class AncestorIdsTest {
+
+    @Test
+    public void matchesTheParentChainOfEveryNode() throws Exception {
+        Taxonomy taxonomy = SyntheticTaxonomy.create(4, 5);
+        for (int i = 0; i < taxonomy.mStore.size(); i++) {
+            Node node = taxonomy.getNode(i);
+            assertEquals(Integer.parseInt(node.key), node.taxonId);
+            assertArrayEquals("ancestors of " + node.key, walkAncestorIds(node), node.ancestorIds);
+        }
+    }
+
+    @Test
+    public void startsAtLifeAndEndsAtTheParent() throws Exception {
+        Taxonomy taxonomy = new Taxonomy(new ByteArrayInputStream((
+                "parent_taxon_id,taxon_id,rank_level,leaf_class_id,name\n" +
+                ",1,70,,Animalia\n" +
+                "1,2,60,,Chordata\n" +
+                "2,3,10,0,Species A\n" +
+                "2,4,10,1,Species B\n" +
+                ",5,70,2,Plantae\n").getBytes("UTF-8")));
+
+        assertArrayEquals(new int[] { 48460, 1, 2 }, taxonomy.getNodeByTaxonId(3).ancestorIds);
+        assertArrayEquals(new int[] { 48460 }, taxonomy.getNodeByTaxonId(5).ancestorIds);
+        assertArrayEquals(new int[0], taxonomy.getNodeByTaxonId(48460).ancestorIds);
+    }
+
+    @Test
+    public void siblingsShareTheirAncestorIds() throws Exception {
+        Taxonomy taxonomy = SyntheticTaxonomy.create(3, 4);
+        for (int i = 0; i < taxonomy.mStore.size(); i++) {
+            Node node = taxonomy.getNode(i);
+            List<Node> siblings = node.getParent() != null ? node.getParent().getChildren() : Collections.<Node>emptyList();
+            for (Node sibling : siblings) {
+                assertSame(node.ancestorIds, sibling.ancestorIds);
+            }
+        }
+    }
+
+    /** How nodeToMap used to find the ancestor IDs: walking up the parents, keeping the numeric keys */
+    static int[] walkAncestorIds(Node node) {
+        List<Integer> ancestors = new ArrayList<>();
+        for (Node current = node; current.getParent() != null; current = current.getParent()) {
+            Node parent = current.getParent();
+            if ((parent.key != null) && parent.key.matches("\\d+")) {
+                ancestors.add(Integer.valueOf(parent.key));
+            }
+        }
+        Collections.reverse(ancestors);
+
+        int[] ids = new int[ancestors.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ancestors.get(i);
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,52 @@
+package org.inaturalist.inatcamera.classifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes predictions into plain Java collections, for tests and benchmarks - the WritableMaps RNCameraView uses
+ * need the React Native bridge, which isn't available on the JVM.
+ */
+final class CollectionOutput implements PredictionSerializer.Output<Map<String, Object>, List<Object>> {
+    static final CollectionOutput INSTANCE = new CollectionOutput();
+
+    private CollectionOutput() {
+    }
+
+    @Override
+    public Map<String, Object> createMap() {
+        return new HashMap<>();
+    }
+
+    @Override
+    public List<Object> createArray() {
+        return new ArrayList<>();
+    }
+
+    @Override
+    public void putInt(Map<String, Object> map, String key, int value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public void putDouble(Map<String, Object> map, String key, double value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public void putString(Map<String, Object> map, String key, String value) {
+        map.put(key, value);
+    }
+
+    @Override
+    public void putArray(Map<String, Object> map, String key, List<Object> array) {
+        map.put(key, array);
+    }
+
+    @Override
+    public void pushInt(List<Object> array, int value) {
+        array.add(value);
+    }
+}
@@ -0,0 +1,99 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that once warmed up, the per-frame work of live classification (converting the camera frame, smoothing the
+ * scores and predicting into a reused result) doesn't allocate anything. Runs the classifier's own frame path, with
+ * only the interpreter replaced by synthetic model outputs.
+ */
+public class LiveFrameAllocationTest {
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+    private static final int OUTPUT_COUNT = 16;
+    private static final int WARM_UP_FRAMES = 200;
+    private static final int MEASURED_FRAMES = 100;
+
+    @Test
+    public void liveFramesDontAllocateAfterWarmUp() throws Exception {
+        Assume.assumeTrue("The JVM doesn't count allocated bytes", allocatedBytes() >= 0);
+
+        final Taxonomy taxonomy = SyntheticTaxonomy.create(3, 10);
+        final float[][] outputs = SyntheticTaxonomy.randomOutputs(OUTPUT_COUNT, taxonomy.getModelSize(), 5);
+        final float[] leafMask = taxonomy.compileLeafMask(SyntheticTaxonomy.FIRST_TAXON_ID, false);
+        final ImageClassifier classifier = new ImageClassifier(taxonomy) {
+            int index = 0;
+
+            @Override
+            boolean isInitialized() {
+                return true;
+            }
+
+            @Override
+            void runModel(Object[] inputs, Map<Integer, Object> modelOutputs) {
+                float[] output = ((float[][]) modelOutputs.get(0))[0];
+                System.arraycopy(outputs[index++ % OUTPUT_COUNT], 0, output, 0, output.length);
+            }
+        };
+        final ScoreSmoother smoother = new ScoreSmoother(500, 1.0f);
+        final ClassificationResult result = new ClassificationResult();
+
+        // A YUV_420_888 frame with interleaved (semi-planar) chroma, like most cameras produce
+        final ByteBuffer yPlane = ByteBuffer.allocateDirect(FRAME_WIDTH * FRAME_HEIGHT);
+        final ByteBuffer uvPlane = ByteBuffer.allocateDirect(FRAME_WIDTH * FRAME_HEIGHT / 2);
+        Random random = new Random(1);
+        while (yPlane.hasRemaining()) yPlane.put((byte) random.nextInt(256));
+        while (uvPlane.hasRemaining()) uvPlane.put((byte) random.nextInt(256));
+        final ByteBuffer uPlane = uvPlane.duplicate();
+        uvPlane.position(1);
+        final ByteBuffer vPlane = uvPlane.slice();
+        final ModelInput input = classifier.createInput();
+
+        Runnable frame = new Runnable() {
+            long timestamp = 0;
+
+            @Override
+            public void run() {
+                classifier.convertYuvFrame(yPlane, uPlane, vPlane, FRAME_WIDTH, FRAME_WIDTH, 2,
+                        FRAME_WIDTH, FRAME_HEIGHT, 90, input);
+
+                timestamp += 33;
+                assertTrue(classifier.classifyInput(input, leafMask, smoother, timestamp, 5, 3, result));
+            }
+        };
+
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            frame.run();
+        }
+
+        // Reading the allocation counter can allocate by itself
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead;
+
+        long allocated = allocatedBytes();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            frame.run();
+        }
+        allocated = allocatedBytes() - allocated - overhead;
+
+        assertEquals("Bytes allocated by " + MEASURED_FRAMES + " frames", 0, allocated);
+        assertEquals(5, result.topLeaves.size());
+    }
+
+    /** Returns how many bytes the current thread has allocated so far (-1 if the JVM doesn't track it) */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,63 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks normalizing a model input sized image: the lookup table with bulk row writes, against computing and
+ * writing each value on its own. Run with ./gradlew jmh -Pjmh.include=NormalizationBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NormalizationBenchmark {
+    private static final int SIZE = ImageClassifier.DIM_IMG_SIZE_X;
+
+    private final int[] mPixels = new int[SIZE * SIZE];
+    private final ByteBuffer mData = ByteBuffer.allocateDirect(4 * 3 * SIZE * SIZE).order(ByteOrder.nativeOrder());
+    private final FloatBuffer mFloats = mData.asFloatBuffer();
+    private final float[] mRow = new float[3 * SIZE];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(3);
+        for (int i = 0; i < mPixels.length; i++) {
+            mPixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+    }
+
+    @Benchmark
+    public FloatBuffer lookupTableBulkRows() {
+        mFloats.rewind();
+        ImageClassifier.writePixels(mPixels, SIZE, SIZE, ImageClassifier.NORMALIZED_VALUES, mRow, mFloats);
+        return mFloats;
+    }
+
+    @Benchmark
+    public ByteBuffer perValuePutFloat() {
+        mData.rewind();
+        for (int pixel : mPixels) {
+            mData.putFloat((((pixel >> 16) & 0xFF) - 128) / 128.0f);
+            mData.putFloat((((pixel >> 8) & 0xFF) - 128) / 128.0f);
+            mData.putFloat(((pixel & 0xFF) - 128) / 128.0f);
+        }
+        return mData;
+    }
+}
@@ -0,0 +1,80 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class NormalizationTest {
+    private static final int WIDTH = 31;
+    private static final int HEIGHT = 17;
+
+    @Test
+    public void lookupTableMatchesTheNormalizationFormula() {
+        assertEquals(256, ImageClassifier.NORMALIZED_VALUES.length);
+        for (int value = 0; value < 256; value++) {
+            assertEquals("value " + value, (value - 128) / 128.0f, ImageClassifier.NORMALIZED_VALUES[value], 0);
+        }
+    }
+
+    @Test
+    public void writesNormalizedRgbInPixelOrder() {
+        int[] pixels = randomPixels(new Random(7));
+
+        FloatBuffer floats = ByteBuffer.allocateDirect(4 * 3 * WIDTH * HEIGHT).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        ImageClassifier.writePixels(pixels, WIDTH, HEIGHT, ImageClassifier.NORMALIZED_VALUES, new float[3 * WIDTH], floats);
+
+        // What the classifier used to write, one putFloat at a time
+        float[] expected = new float[3 * WIDTH * HEIGHT];
+        int value = 0;
+        for (int pixel : pixels) {
+            expected[value++] = (((pixel >> 16) & 0xFF) - 128) / 128.0f;
+            expected[value++] = (((pixel >> 8) & 0xFF) - 128) / 128.0f;
+            expected[value++] = ((pixel & 0xFF) - 128) / 128.0f;
+        }
+
+        assertEquals(expected.length, floats.position());
+        float[] actual = new float[expected.length];
+        floats.rewind();
+        floats.get(actual);
+        assertArrayEquals(expected, actual, 0);
+    }
+
+    @Test
+    public void writesQuantizedRgbThroughTheLookupTable() {
+        int[] pixels = randomPixels(new Random(11));
+        byte[] table = new byte[256];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (byte) (255 - i);
+        }
+
+        ByteBuffer data = ByteBuffer.allocateDirect(3 * WIDTH * HEIGHT);
+        ImageClassifier.writePixels(pixels, WIDTH, HEIGHT, table, new byte[3 * WIDTH], data);
+
+        byte[] expected = new byte[3 * WIDTH * HEIGHT];
+        int value = 0;
+        for (int pixel : pixels) {
+            expected[value++] = table[(pixel >> 16) & 0xFF];
+            expected[value++] = table[(pixel >> 8) & 0xFF];
+            expected[value++] = table[pixel & 0xFF];
+        }
+
+        byte[] actual = new byte[expected.length];
+        data.rewind();
+        data.get(actual);
+        assertArrayEquals(expected, actual);
+    }
+
+    private static int[] randomPixels(Random random) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,37 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PredictionSerializerTest {
+
+    @Test
+    public void serializesThePredictedTaxon() throws Exception {
+        Taxonomy taxonomy = new Taxonomy(new ByteArrayInputStream((
+                "parent_taxon_id,taxon_id,rank_level,leaf_class_id,name\n" +
+                ",1,70,,Animalia\n" +
+                "1,2,60,,Chordata\n" +
+                "2,3,10,0,Species A\n" +
+                "2,4,10,1,Species B\n").getBytes("UTF-8")));
+
+        Map<String, Object> map = PredictionSerializer.toMap(
+                new Prediction(taxonomy.getNodeByTaxonId(3), 0.75), CollectionOutput.INSTANCE);
+
+        assertEquals(3, map.get("taxon_id"));
+        assertEquals("Species A", map.get("name"));
+        assertEquals(0.75, map.get("score"));
+        assertEquals(10.0, map.get("rank"));
+        assertEquals(Arrays.<Object>asList(48460, 1, 2), map.get("ancestor_ids"));
+    }
+
+    @Test
+    public void skipsNodesWithoutATaxonId() {
+        assertNull(PredictionSerializer.toMap(new Prediction(new Node(), 0.5), CollectionOutput.INSTANCE));
+    }
+}
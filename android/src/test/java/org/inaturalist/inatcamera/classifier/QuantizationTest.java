@@ -0,0 +1,46 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.junit.Test;
+import org.tensorflow.lite.DataType;
+
+import static org.junit.Assert.assertEquals;
+
+public class QuantizationTest {
+    @Test
+    public void quantizesUint8Inputs() {
+        // The usual uint8 input quantization maps the normalized range (-1..1) back onto the channel values
+        byte[] values = ImageClassifier.quantizeValues(1.0f / 128, 128, DataType.UINT8);
+        for (int i = 0; i < 256; i++) {
+            assertEquals("value " + i, i, values[i] & 0xFF);
+        }
+    }
+
+    @Test
+    public void quantizesInt8Inputs() {
+        byte[] values = ImageClassifier.quantizeValues(1.0f / 128, 0, DataType.INT8);
+        for (int i = 0; i < 256; i++) {
+            assertEquals("value " + i, i - 128, values[i]);
+        }
+    }
+
+    @Test
+    public void clampsToTheTypeRange() {
+        byte[] unsigned = ImageClassifier.quantizeValues(1.0f / 256, 128, DataType.UINT8);
+        byte[] signed = ImageClassifier.quantizeValues(1.0f / 256, 0, DataType.INT8);
+        for (int i = 0; i < 256; i++) {
+            int expected = 2 * (i - 128);
+            assertEquals("value " + i, Math.max(0, Math.min(255, expected + 128)), unsigned[i] & 0xFF);
+            assertEquals("value " + i, Math.max(-128, Math.min(127, expected)), signed[i]);
+        }
+    }
+
+    @Test
+    public void feedsRawValuesWithoutQuantizationInfo() {
+        byte[] unsigned = ImageClassifier.quantizeValues(0, 0, DataType.UINT8);
+        byte[] signed = ImageClassifier.quantizeValues(0, 0, DataType.INT8);
+        for (int i = 0; i < 256; i++) {
+            assertEquals("value " + i, i, unsigned[i] & 0xFF);
+            assertEquals("value " + i, i - 128, signed[i]);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SceneChangeDetectorTest {
+    private static final int WIDTH = 48;
+    private static final int HEIGHT = 32;
+    private static final int ROW_STRIDE = WIDTH + 8;
+
+    @Test
+    public void lumaThumbnailsMatchCroppedAndRotatedBitmaps() {
+        // Luma in 2x2 pixel blocks (a thumbnail block of a 32 pixel square), so sampling sees every value it averages
+        Random random = new Random(4);
+        int[][] luma = new int[HEIGHT][WIDTH];
+        for (int y = 0; y < HEIGHT; y += 2) {
+            for (int x = 0; x < WIDTH; x += 2) {
+                int value = random.nextInt(256);
+                luma[y][x] = luma[y][x + 1] = luma[y + 1][x] = luma[y + 1][x + 1] = value;
+            }
+        }
+        ByteBuffer plane = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                plane.put(y * ROW_STRIDE + x, (byte) luma[y][x]);
+            }
+        }
+
+        int side = Math.min(WIDTH, HEIGHT);
+        int cropX = (WIDTH - side) / 2;
+        for (int rotation = 0; rotation < 360; rotation += 90) {
+            // What a preview bitmap of the frame looks like: gray, center-cropped and rotated clockwise
+            int[] pixels = new int[side * side];
+            for (int y = 0; y < side; y++) {
+                for (int x = 0; x < side; x++) {
+                    int sx, sy;
+                    switch (rotation) {
+                        case 90: sx = y; sy = side - 1 - x; break;
+                        case 180: sx = side - 1 - x; sy = side - 1 - y; break;
+                        case 270: sx = side - 1 - y; sy = x; break;
+                        default: sx = x; sy = y; break;
+                    }
+                    int value = luma[sy][cropX + sx];
+                    pixels[y * side + x] = 0xFF000000 | (value << 16) | (value << 8) | value;
+                }
+            }
+
+            int[] expected = new int[SceneChangeDetector.THUMBNAIL_LENGTH];
+            SceneChangeDetector.computeThumbnail(pixels, side, side, expected);
+            int[] actual = new int[SceneChangeDetector.THUMBNAIL_LENGTH];
+            SceneChangeDetector.computeLumaThumbnail(plane, ROW_STRIDE, WIDTH, HEIGHT, rotation, actual);
+
+            assertArrayEquals("rotation " + rotation, expected, actual);
+        }
+    }
+
+    @Test
+    public void skipsFramesUntilTheSceneChanges() {
+        SceneChangeDetector detector = new SceneChangeDetector(10);
+        int[] thumbnail = new int[SceneChangeDetector.THUMBNAIL_LENGTH];
+
+        assertTrue(detector.hasChanged(thumbnail));
+        thumbnail[0] = 255;
+        assertFalse(detector.hasChanged(thumbnail));
+
+        for (int i = 0; i < thumbnail.length; i++) {
+            thumbnail[i] = 20;
+        }
+        assertTrue(detector.hasChanged(thumbnail));
+
+        detector.reset();
+        assertTrue(detector.hasChanged(thumbnail));
+    }
+}
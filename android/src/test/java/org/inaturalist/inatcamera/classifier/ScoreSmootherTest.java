@@ -0,0 +1,64 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class ScoreSmootherTest {
+    private static final float DELTA = 1e-6f;
+
+    @Test
+    public void passesTheFirstFrameThrough() {
+        ScoreSmoother smoother = new ScoreSmoother(1000, 0);
+        float[] scores = { 0.2f, 0.8f };
+
+        float[] smoothed = smoother.smooth(scores, 0);
+        assertArrayEquals(scores, smoothed, 0);
+        assertNotSame(scores, smoothed);
+    }
+
+    @Test
+    public void halvesTheWeightOfOlderFramesEveryHalfLife() {
+        ScoreSmoother smoother = new ScoreSmoother(1000, 0);
+        smoother.smooth(new float[] { 1, 0 }, 0);
+
+        assertArrayEquals(new float[] { 0.5f, 0.5f }, smoother.smooth(new float[] { 0, 1 }, 1000), DELTA);
+        assertArrayEquals(new float[] { 0.25f, 0.75f }, smoother.smooth(new float[] { 0, 1 }, 2000), DELTA);
+        // Two half-lives at once
+        assertArrayEquals(new float[] { 0.0625f, 0.9375f }, smoother.smooth(new float[] { 0, 1 }, 4000), DELTA);
+    }
+
+    @Test
+    public void doesntSmoothWithoutAHalfLife() {
+        ScoreSmoother smoother = new ScoreSmoother(0, 0);
+        smoother.smooth(new float[] { 1, 0 }, 0);
+        assertArrayEquals(new float[] { 0, 1 }, smoother.smooth(new float[] { 0, 1 }, 100), 0);
+    }
+
+    @Test
+    public void restartsWhenTheSceneChanges() {
+        ScoreSmoother smoother = new ScoreSmoother(1000, 1.5f);
+        smoother.smooth(new float[] { 1, 0, 0 }, 0);
+
+        // L1 distance of 1 - smoothed
+        assertArrayEquals(new float[] { 0.75f, 0.25f, 0 }, smoother.smooth(new float[] { 0.5f, 0.5f, 0 }, 1000), DELTA);
+        // L1 distance of 2 - restarted
+        assertArrayEquals(new float[] { 0, 0, 1 }, smoother.smooth(new float[] { 0, 0, 1 }, 2000), 0);
+    }
+
+    @Test
+    public void restartsAfterAReset() {
+        ScoreSmoother smoother = new ScoreSmoother(1000, 0);
+        smoother.smooth(new float[] { 1, 0 }, 0);
+        smoother.reset();
+        assertArrayEquals(new float[] { 0, 1 }, smoother.smooth(new float[] { 0, 1 }, 1000), 0);
+    }
+
+    @Test
+    public void restartsWhenTheModelSizeChanges() {
+        ScoreSmoother smoother = new ScoreSmoother(1000, 0);
+        smoother.smooth(new float[] { 1, 0 }, 0);
+        assertArrayEquals(new float[] { 0, 0, 1 }, smoother.smooth(new float[] { 0, 0, 1 }, 1000), 0);
+    }
+}
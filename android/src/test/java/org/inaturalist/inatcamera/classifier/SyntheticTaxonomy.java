@@ -0,0 +1,90 @@
+package org.inaturalist.inatcamera.classifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Generates synthetic taxonomies - complete trees of a given depth and fan-out (fanOut ^ depth leaves) - and random
+ * model outputs for them, for tests and benchmarks.
+ */
+final class SyntheticTaxonomy {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Taxon IDs start high enough not to collide with life's */
+    static final int FIRST_TAXON_ID = 100000;
+
+    private SyntheticTaxonomy() {
+    }
+
+    static int leafCount(int depth, int fanOut) {
+        int count = 1;
+        for (int i = 0; i < depth; i++) {
+            count *= fanOut;
+        }
+        return count;
+    }
+
+    /**
+     * Generates a taxonomy CSV (new layout). Top level taxa hang off life, ranks go down by 10 per level (leaves are
+     * at rank 10) and leaves are numbered in DFS order.
+     */
+    static String csv(int depth, int fanOut) {
+        StringBuilder csv = new StringBuilder("parent_taxon_id,taxon_id,rank_level,leaf_class_id,name\n");
+        appendChildren(csv, "", 1, depth, fanOut, new int[] { FIRST_TAXON_ID, 0 });
+        return csv.toString();
+    }
+
+    /** Appends the children of a taxon (and their subtrees), where ids = { next taxon ID, next leaf class ID } */
+    private static void appendChildren(StringBuilder csv, String parentKey, int level, int depth, int fanOut, int[] ids) {
+        for (int i = 0; i < fanOut; i++) {
+            int taxonId = ids[0]++;
+            boolean leaf = level == depth;
+            csv.append(parentKey).append(',')
+                    .append(taxonId).append(',')
+                    .append((depth - level + 1) * 10).append(',')
+                    .append(leaf ? Integer.toString(ids[1]++) : "").append(',')
+                    .append("Taxon ").append(taxonId).append('\n');
+            if (!leaf) {
+                appendChildren(csv, Integer.toString(taxonId), level + 1, depth, fanOut, ids);
+            }
+        }
+    }
+
+    static Taxonomy create(int depth, int fanOut) throws IOException {
+        return new Taxonomy(new ByteArrayInputStream(csv(depth, fanOut).getBytes(UTF8)));
+    }
+
+    /** Returns a softmax over random (normally distributed) logits - a few classes stand out, like real outputs */
+    static float[] randomSoftmax(int size, Random random) {
+        double[] logits = new double[size];
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            logits[i] = random.nextGaussian() * 3;
+            max = Math.max(max, logits[i]);
+        }
+
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            logits[i] = Math.exp(logits[i] - max);
+            sum += logits[i];
+        }
+
+        float[] scores = new float[size];
+        for (int i = 0; i < size; i++) {
+            scores[i] = (float) (logits[i] / sum);
+        }
+        return scores;
+    }
+
+    /** Returns several random outputs, to cycle through (so a benchmark doesn't keep scoring the same frame) */
+    static float[][] randomOutputs(int count, int size, long seed) {
+        Random random = new Random(seed);
+        float[][] outputs = new float[count][];
+        for (int i = 0; i < count; i++) {
+            outputs[i] = randomSoftmax(size, random);
+        }
+        return outputs;
+    }
+}
@@ -0,0 +1,97 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the per-frame taxonomy work (aggregation, best branch, top leaves / candidates and serializing the
+ * predictions) on synthetic taxonomies of 10k-100k leaves (depth x fan-out), with random softmax outputs. Run with
+ * ./gradlew jmh -Pjmh.include=TaxonomyBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaxonomyBenchmark {
+    private static final int OUTPUT_COUNT = 16;
+
+    @Param({ "4x10", "2x100", "7x4", "5x10" })
+    public String taxonomy;
+
+    private Taxonomy mTaxonomy;
+    private float[][] mOutputs;
+    private float[][] mScores;
+    private List<Prediction> mPredictions;
+    private final ClassificationResult mResult = new ClassificationResult();
+    private int mFrame;
+
+    @Setup
+    public void setUp() throws Exception {
+        String[] parts = taxonomy.split("x");
+        int depth = Integer.parseInt(parts[0]);
+        int fanOut = Integer.parseInt(parts[1]);
+
+        mTaxonomy = SyntheticTaxonomy.create(depth, fanOut);
+        mOutputs = SyntheticTaxonomy.randomOutputs(OUTPUT_COUNT, mTaxonomy.getModelSize(), depth * 1000 + fanOut);
+
+        mScores = new float[OUTPUT_COUNT][];
+        for (int i = 0; i < OUTPUT_COUNT; i++) {
+            mScores[i] = mTaxonomy.aggregateScores(mOutputs[i], null).clone();
+        }
+
+        mTaxonomy.predict(mOutputs[0], null, 5, 5, mResult);
+        mPredictions = new ArrayList<>(mResult.bestBranch);
+        mPredictions.addAll(mResult.topLeaves);
+    }
+
+    @Benchmark
+    public ClassificationResult predict() {
+        mTaxonomy.predict(mOutputs[mFrame++ % OUTPUT_COUNT], null, 0, 0, mResult);
+        return mResult;
+    }
+
+    /** Top 5 leaves and 5 candidates per rank */
+    @Benchmark
+    public ClassificationResult predictCandidates() {
+        mTaxonomy.predict(mOutputs[mFrame++ % OUTPUT_COUNT], null, 5, 5, mResult);
+        return mResult;
+    }
+
+    @Benchmark
+    public float[] aggregateScores() {
+        return mTaxonomy.aggregateScores(mOutputs[mFrame++ % OUTPUT_COUNT], null);
+    }
+
+    @Benchmark
+    public ClassificationResult buildBestBranchFromScores() {
+        mResult.clear();
+        mTaxonomy.buildBestBranchFromScores(mScores[mFrame++ % OUTPUT_COUNT], mResult);
+        return mResult;
+    }
+
+    /** Serializes the best branch and top leaves of a frame, like RNCameraView.nodeToMap */
+    @Benchmark
+    public List<Map<String, Object>> nodeToMap() {
+        List<Map<String, Object>> maps = new ArrayList<>(mPredictions.size());
+        for (Prediction prediction : mPredictions) {
+            maps.add(PredictionSerializer.toMap(prediction, CollectionOutput.INSTANCE));
+        }
+        return maps;
+    }
+}
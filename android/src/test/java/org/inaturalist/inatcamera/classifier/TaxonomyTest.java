@@ -0,0 +1,152 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TaxonomyTest {
+    private static final float DELTA = 1e-6f;
+
+    // life
+    // +- 1 (rank 50)
+    // |  +- 2 (rank 10, leaf 0)
+    // |  +- 3 (rank 10, leaf 1)
+    // +- 4 (rank 50)
+    //    +- 5 (rank 10, leaf 2)
+    //    +- 6 (rank 10, leaf 3)
+    //    +- 7 (rank 10, leaf 4)
+    private static final String CSV = "parent_taxon_id,taxon_id,rank_level,leaf_class_id,name\n" +
+            ",1,50,,Genus A\n" +
+            "1,2,10,0,Species A1\n" +
+            "1,3,10,1,Species A2\n" +
+            ",4,50,,Genus B\n" +
+            "4,5,10,2,Species B1\n" +
+            "4,6,10,3,Species B2\n" +
+            "4,7,10,4,Species B3\n";
+
+    private Taxonomy mTaxonomy;
+
+    @Before
+    public void setUp() throws Exception {
+        mTaxonomy = new Taxonomy(new ByteArrayInputStream(CSV.getBytes("UTF-8")));
+    }
+
+    private float score(float[] scores, int taxonId) {
+        return scores[mTaxonomy.getNodeByTaxonId(taxonId).index];
+    }
+
+    @Test
+    public void aggregatesScoresUpTheTree() {
+        assertEquals(5, mTaxonomy.getModelSize());
+
+        float[] scores = mTaxonomy.aggregateScores(new float[] { 0.1f, 0.2f, 0.3f, 0.15f, 0.25f }, null);
+        assertEquals(0.1f, score(scores, 2), DELTA);
+        assertEquals(0.3f, score(scores, 1), DELTA);
+        assertEquals(0.7f, score(scores, 4), DELTA);
+        assertEquals(1.0f, score(scores, 48460), DELTA);
+    }
+
+    @Test
+    public void aggregatesSyntheticTaxonomies() throws Exception {
+        Taxonomy taxonomy = SyntheticTaxonomy.create(3, 6);
+        float[] output = SyntheticTaxonomy.randomSoftmax(taxonomy.getModelSize(), new Random(1));
+        float[] scores = taxonomy.aggregateScores(output, null);
+
+        // Every node scores the sum of its children (or its own model output, for leaves)
+        for (int i = 0; i < scores.length; i++) {
+            Node node = taxonomy.getNode(i);
+            float expected = 0;
+            if (node.getChildren().isEmpty()) {
+                expected = output[Integer.parseInt(node.leafId)];
+            }
+            for (Node child : node.getChildren()) {
+                expected += scores[child.index];
+            }
+            assertEquals("node " + node.key, expected, scores[i], 1e-4f);
+        }
+        assertEquals(1.0f, scores[scores.length - 1], 1e-4f);
+    }
+
+    @Test
+    public void listsChildrenInTheirCsvOrder() throws Exception {
+        assertEquals(Arrays.asList("1", "4"), keys(mTaxonomy.getNodeByTaxonId(48460).getChildren()));
+        assertEquals(Arrays.asList("5", "6", "7"), keys(mTaxonomy.getNodeByTaxonId(4).getChildren()));
+        assertEquals(0, mTaxonomy.getNodeByTaxonId(6).getChildren().size());
+
+        // Indexed access and iteration agree with the parents (children come in increasing post-order)
+        Taxonomy taxonomy = SyntheticTaxonomy.create(3, 4);
+        int count = taxonomy.mStore.size();
+        for (int i = 0; i < count; i++) {
+            Node node = taxonomy.getNode(i);
+            List<Node> expected = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                if (taxonomy.getNode(j).getParent() == node) expected.add(taxonomy.getNode(j));
+            }
+
+            List<Node> children = node.getChildren();
+            assertEquals(expected.size(), children.size());
+            List<Node> iterated = new ArrayList<>(children);
+            for (int j = 0; j < expected.size(); j++) {
+                assertSame(expected.get(j), children.get(j));
+                assertSame(expected.get(j), iterated.get(j));
+            }
+        }
+    }
+
+    private static List<String> keys(List<Node> nodes) {
+        List<String> keys = new ArrayList<>();
+        for (Node node : nodes) {
+            keys.add(node.key);
+        }
+        return keys;
+    }
+
+    @Test
+    public void appliesTheLeafMask() {
+        float[] mask = mTaxonomy.compileLeafMask(4, false);
+        float[] scores = mTaxonomy.aggregateScores(new float[] { 0.1f, 0.2f, 0.3f, 0.15f, 0.25f }, mask);
+        assertEquals(0, score(scores, 1), DELTA);
+        assertEquals(0.7f, score(scores, 4), DELTA);
+
+        mask = mTaxonomy.compileLeafMask(4, true);
+        scores = mTaxonomy.aggregateScores(new float[] { 0.1f, 0.2f, 0.3f, 0.15f, 0.25f }, mask);
+        assertEquals(0.3f, score(scores, 1), DELTA);
+        assertEquals(0, score(scores, 4), DELTA);
+    }
+
+    @Test
+    public void followsTheBestChildFromLife() {
+        ClassificationResult result = new ClassificationResult();
+        mTaxonomy.predict(new float[] { 0.4f, 0.1f, 0.2f, 0.1f, 0.2f }, null, 0, 0, result);
+
+        // Both genera score 0.5 (ties go to the first child), then species A1 beats A2
+        List<Prediction> branch = result.bestBranch;
+        assertEquals(3, branch.size());
+        assertEquals("48460", branch.get(0).node.key);
+        assertEquals("1", branch.get(1).node.key);
+        assertEquals("2", branch.get(2).node.key);
+        assertEquals(0.4f, branch.get(2).probability, DELTA);
+    }
+
+    @Test
+    public void predictsTopLeavesAndCandidatesPerRank() {
+        ClassificationResult result = new ClassificationResult();
+        mTaxonomy.predict(new float[] { 0.05f, 0.3f, 0.1f, 0.35f, 0.2f }, null, 2, 1, result);
+
+        assertEquals(2, result.topLeaves.size());
+        assertEquals("6", result.topLeaves.get(0).node.key);
+        assertEquals("3", result.topLeaves.get(1).node.key);
+
+        assertEquals("48460", result.candidatesByRank.get(100.0f).get(0).node.key);
+        assertEquals("4", result.candidatesByRank.get(50.0f).get(0).node.key);
+        assertEquals("6", result.candidatesByRank.get(10.0f).get(0).node.key);
+    }
+}
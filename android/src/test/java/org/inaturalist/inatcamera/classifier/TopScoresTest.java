@@ -0,0 +1,82 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TopScoresTest {
+
+    @Test
+    public void selectsTheTopScoresHighestFirst() {
+        Random random = new Random(9);
+        final float[] scores = new float[1000];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextFloat();
+        }
+
+        TopScores top = new TopScores(10);
+        for (int i = 0; i < scores.length; i++) {
+            top.offer(i, scores);
+        }
+        int[] selected = new int[10];
+        assertEquals(10, top.drainSorted(selected, scores));
+        assertEquals(0, top.size());
+
+        Integer[] indices = new Integer[scores.length];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        Arrays.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(scores[b], scores[a]);
+            }
+        });
+        int[] expected = new int[10];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = indices[i];
+        }
+        assertArrayEquals(expected, selected);
+    }
+
+    @Test
+    public void keepsEverythingWhenOfferedFewerThanItsCapacity() {
+        float[] scores = { 0.1f, 0.7f, 0.2f };
+        TopScores top = new TopScores(5);
+        for (int i = 0; i < scores.length; i++) {
+            top.offer(i, scores);
+        }
+
+        int[] selected = new int[5];
+        assertEquals(3, top.drainSorted(selected, scores));
+        assertArrayEquals(new int[] { 1, 2, 0 }, Arrays.copyOf(selected, 3));
+    }
+
+    @Test
+    public void canBeReused() {
+        float[] scores = { 0.5f, 0.1f, 0.9f, 0.3f };
+        TopScores top = new TopScores(2);
+        int[] selected = new int[2];
+        for (int round = 0; round < 2; round++) {
+            top.clear();
+            for (int i = 0; i < scores.length; i++) {
+                top.offer(i, scores);
+            }
+            assertEquals(2, top.drainSorted(selected, scores));
+            assertArrayEquals(new int[] { 2, 0 }, selected);
+        }
+    }
+
+    @Test
+    public void selectsNothingWithoutCapacity() {
+        float[] scores = { 0.5f };
+        TopScores top = new TopScores(0);
+        top.offer(0, scores);
+        assertEquals(0, top.drainSorted(new int[0], scores));
+    }
+}
@@ -0,0 +1,98 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks converting camera frames of common scan stream sizes into float and quantized model input. Run with
+ * ./gradlew jmh -Pjmh.include=YuvConverterBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YuvConverterBenchmark {
+    private static final int SIZE = ImageClassifier.DIM_IMG_SIZE_X;
+
+    @Param({ "640x480", "1280x720", "1920x1080" })
+    public String frameSize;
+
+    private int mWidth;
+    private int mHeight;
+    private ByteBuffer mYPlane;
+    private ByteBuffer mUPlane;
+    private ByteBuffer mVPlane;
+
+    private final YuvConverter mConverter = new YuvConverter(SIZE, SIZE);
+    private final FloatBuffer mFloats = ByteBuffer.allocateDirect(4 * 3 * SIZE * SIZE).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final ByteBuffer mBytes = ByteBuffer.allocateDirect(3 * SIZE * SIZE);
+    private final byte[] mQuantized = new byte[256];
+
+    @Setup
+    public void setUp() {
+        String[] parts = frameSize.split("x");
+        mWidth = Integer.parseInt(parts[0]);
+        mHeight = Integer.parseInt(parts[1]);
+
+        for (int i = 0; i < mQuantized.length; i++) {
+            mQuantized[i] = (byte) i;
+        }
+
+        // Semi-planar (NV21-like) frame, the most common camera layout
+        Random random = new Random(4);
+        mYPlane = randomBuffer(mWidth * mHeight, random);
+        ByteBuffer uvPlane = randomBuffer(mWidth * mHeight / 2, random);
+        mUPlane = uvPlane.duplicate();
+        uvPlane.position(1);
+        mVPlane = uvPlane.slice();
+    }
+
+    @Benchmark
+    public FloatBuffer floatRotated90() {
+        mFloats.rewind();
+        mConverter.convert(mYPlane, mUPlane, mVPlane, mWidth, mWidth, 2, mWidth, mHeight, 90,
+                ImageClassifier.NORMALIZED_VALUES, mFloats);
+        return mFloats;
+    }
+
+    @Benchmark
+    public FloatBuffer floatNotRotated() {
+        mFloats.rewind();
+        mConverter.convert(mYPlane, mUPlane, mVPlane, mWidth, mWidth, 2, mWidth, mHeight, 0,
+                ImageClassifier.NORMALIZED_VALUES, mFloats);
+        return mFloats;
+    }
+
+    @Benchmark
+    public ByteBuffer quantizedRotated90() {
+        mBytes.rewind();
+        mConverter.convert(mYPlane, mUPlane, mVPlane, mWidth, mWidth, 2, mWidth, mHeight, 90, mQuantized, mBytes);
+        return mBytes;
+    }
+
+    private static ByteBuffer randomBuffer(int size, Random random) {
+        byte[] values = new byte[size];
+        random.nextBytes(values);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(values);
+        buffer.rewind();
+        return buffer;
+    }
+}
@@ -0,0 +1,187 @@
+package org.inaturalist.inatcamera.classifier;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class YuvConverterTest {
+    /** Lookup table that keeps the channel values as they are, so the output is plain RGB */
+    private static final float[] IDENTITY = new float[256];
+    static {
+        for (int i = 0; i < IDENTITY.length; i++) {
+            IDENTITY[i] = i;
+        }
+    }
+
+    /** A synthetic YUV_420_888 frame, with padded rows and planar (pixel stride 1) or interleaved (2) chroma */
+    private static class Frame {
+        final int width;
+        final int height;
+        final int yRowStride;
+        final int uvRowStride;
+        final int uvPixelStride;
+        final ByteBuffer y;
+        final ByteBuffer u;
+        final ByteBuffer v;
+
+        Frame(int[][] luma, int[][] uValues, int[][] vValues, int uvPixelStride) {
+            height = luma.length;
+            width = luma[0].length;
+            yRowStride = width + 16;
+            this.uvPixelStride = uvPixelStride;
+            int chromaWidth = (width + 1) / 2;
+            int chromaHeight = (height + 1) / 2;
+            uvRowStride = chromaWidth * uvPixelStride + 8;
+
+            y = ByteBuffer.allocateDirect(yRowStride * height);
+            for (int row = 0; row < height; row++) {
+                for (int column = 0; column < width; column++) {
+                    y.put(row * yRowStride + column, (byte) luma[row][column]);
+                }
+            }
+
+            if (uvPixelStride == 2) {
+                // Interleaved chroma: V follows U in the same buffer
+                ByteBuffer uv = ByteBuffer.allocateDirect(uvRowStride * chromaHeight + 1);
+                u = uv.duplicate();
+                uv.position(1);
+                v = uv.slice();
+            } else {
+                u = ByteBuffer.allocateDirect(uvRowStride * chromaHeight);
+                v = ByteBuffer.allocateDirect(uvRowStride * chromaHeight);
+            }
+            for (int row = 0; row < chromaHeight; row++) {
+                for (int column = 0; column < chromaWidth; column++) {
+                    u.put(row * uvRowStride + column * uvPixelStride, (byte) uValues[row][column]);
+                    v.put(row * uvRowStride + column * uvPixelStride, (byte) vValues[row][column]);
+                }
+            }
+        }
+
+        float[] convert(YuvConverter converter, int outputSize, int rotation) {
+            FloatBuffer output = FloatBuffer.allocate(outputSize * outputSize * 3);
+            converter.convert(y, u, v, yRowStride, uvRowStride, uvPixelStride, width, height, rotation, IDENTITY, output);
+            assertEquals(output.capacity(), output.position());
+            return output.array();
+        }
+    }
+
+    private static int[][] fill(int width, int height, int value) {
+        int[][] values = new int[height][width];
+        for (int[] row : values) {
+            Arrays.fill(row, value);
+        }
+        return values;
+    }
+
+    @Test
+    public void convertsColorsWithBt601() {
+        int[][] colors = { { 128, 128, 128 }, { 76, 85, 255 }, { 150, 44, 21 }, { 29, 255, 107 }, { 0, 0, 0 }, { 255, 255, 255 } };
+        for (int[] yuv : colors) {
+            for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+                Frame frame = new Frame(fill(20, 12, yuv[0]), fill(10, 6, yuv[1]), fill(10, 6, yuv[2]), pixelStride);
+                float[] rgb = frame.convert(new YuvConverter(4, 4), 4, 0);
+
+                int u = yuv[1] - 128;
+                int v = yuv[2] - 128;
+                float[] expected = {
+                        clamp(yuv[0] + 1.402f * v),
+                        clamp(yuv[0] - 0.344f * u - 0.714f * v),
+                        clamp(yuv[0] + 1.772f * u) };
+                for (int i = 0; i < rgb.length; i++) {
+                    assertEquals("YUV " + Arrays.toString(yuv) + ", channel " + (i % 3), expected[i % 3], rgb[i], 1.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void copiesLumaWhenTheCropIsTheOutputSize() {
+        // 16x16 crop out of a 24x16 frame - every output pixel is an input pixel, with neutral chroma it's gray
+        Random random = new Random(2);
+        int[][] luma = new int[16][24];
+        for (int[] row : luma) {
+            for (int column = 0; column < row.length; column++) {
+                row[column] = random.nextInt(256);
+            }
+        }
+        Frame frame = new Frame(luma, fill(12, 8, 128), fill(12, 8, 128), 2);
+        float[] rgb = frame.convert(new YuvConverter(16, 16), 16, 0);
+
+        for (int row = 0; row < 16; row++) {
+            for (int column = 0; column < 16; column++) {
+                int pixel = (row * 16 + column) * 3;
+                float value = luma[row][column + 4];
+                assertArrayEquals("pixel " + column + "," + row, new float[] { value, value, value },
+                        new float[] { rgb[pixel], rgb[pixel + 1], rgb[pixel + 2] }, 0);
+            }
+        }
+    }
+
+    @Test
+    public void cropsTheCenterSquare() {
+        // Bright margins on both sides of a dark center square
+        int[][] luma = fill(40, 20, 255);
+        for (int[] row : luma) {
+            Arrays.fill(row, 10, 30, 0);
+        }
+        Frame frame = new Frame(luma, fill(20, 10, 128), fill(20, 10, 128), 1);
+        float[] rgb = frame.convert(new YuvConverter(8, 8), 8, 0);
+
+        for (float value : rgb) {
+            assertEquals(0, value, 0);
+        }
+    }
+
+    @Test
+    public void rotatesClockwise() {
+        // Only the top left quarter of the (sensor) frame is bright
+        int[][] luma = fill(16, 16, 0);
+        for (int row = 0; row < 8; row++) {
+            Arrays.fill(luma[row], 0, 8, 200);
+        }
+        Frame frame = new Frame(luma, fill(8, 8, 128), fill(8, 8, 128), 2);
+        YuvConverter converter = new YuvConverter(8, 8);
+
+        // Where the bright quarter ends up (column, row of the output quarter), for each rotation
+        int[][] quarters = { { 0, 0 }, { 1, 0 }, { 1, 1 }, { 0, 1 } };
+        for (int i = 0; i < 4; i++) {
+            float[] rgb = frame.convert(converter, 8, i * 90);
+            for (int row = 0; row < 8; row++) {
+                for (int column = 0; column < 8; column++) {
+                    boolean bright = (column / 4 == quarters[i][0]) && (row / 4 == quarters[i][1]);
+                    assertEquals("rotation " + (i * 90) + ", pixel " + column + "," + row,
+                            bright ? 200 : 0, rgb[(row * 8 + column) * 3], 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void writesQuantizedValuesThroughTheTable() {
+        Frame frame = new Frame(fill(8, 8, 100), fill(4, 4, 128), fill(4, 4, 128), 1);
+        byte[] table = new byte[256];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (byte) (i / 2);
+        }
+
+        ByteBuffer output = ByteBuffer.allocate(4 * 4 * 3);
+        new YuvConverter(4, 4).convert(frame.y, frame.u, frame.v, frame.yRowStride, frame.uvRowStride,
+                frame.uvPixelStride, frame.width, frame.height, 0, table, output);
+
+        assertEquals(output.capacity(), output.position());
+        for (byte value : output.array()) {
+            assertEquals(50, value);
+        }
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,100 @@
+package org.inaturalist.inatcamera.nativecamera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DetectionIntervalGovernorTest {
+    /** A clock that only moves when told to */
+    private static class FakeClock implements DetectionIntervalGovernor.Clock {
+        long now = 10000;
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+    }
+
+    private FakeClock mClock;
+    private DetectionIntervalGovernor mGovernor;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mGovernor = new DetectionIntervalGovernor(mClock, 1000);
+    }
+
+    @Test
+    public void usesTheFixedIntervalWithoutADutyCycle() {
+        mGovernor.recordLatency(300);
+        assertEquals(1000, mGovernor.getInterval());
+
+        mGovernor.setFixedInterval(700);
+        assertEquals(700, mGovernor.getInterval());
+    }
+
+    @Test
+    public void usesTheFixedIntervalUntilALatencyIsMeasured() {
+        mGovernor.setTargetDutyCycle(0.25f);
+        assertEquals(1000, mGovernor.getInterval());
+        assertEquals(0, mGovernor.getAverageLatency(), 0);
+    }
+
+    @Test
+    public void adaptsTheIntervalToTheLatency() {
+        mGovernor.setTargetDutyCycle(0.25f);
+        mGovernor.recordLatency(200);
+        assertEquals(800, mGovernor.getInterval());
+    }
+
+    @Test
+    public void averagesTheLatency() {
+        mGovernor.setTargetDutyCycle(0.5f);
+        mGovernor.recordLatency(200);
+        mGovernor.recordLatency(700);
+
+        // The latest latency weighs 20%
+        assertEquals(300, mGovernor.getAverageLatency(), 0.001);
+        assertEquals(600, mGovernor.getInterval());
+    }
+
+    @Test
+    public void halvesTheDutyCycleInPowerSaveMode() {
+        mGovernor.setTargetDutyCycle(0.25f);
+        mGovernor.recordLatency(200);
+        mGovernor.setPowerSaveMode(true);
+        assertEquals(1600, mGovernor.getInterval());
+    }
+
+    @Test
+    public void boundsTheInterval() {
+        mGovernor.setTargetDutyCycle(0.5f);
+        mGovernor.setMinInterval(250);
+        mGovernor.setMaxInterval(2000);
+
+        mGovernor.recordLatency(10);
+        assertEquals(250, mGovernor.getInterval());
+
+        DetectionIntervalGovernor slow = new DetectionIntervalGovernor(mClock, 1000);
+        slow.setTargetDutyCycle(0.5f);
+        slow.setMaxInterval(2000);
+        slow.recordLatency(5000);
+        assertEquals(2000, slow.getInterval());
+    }
+
+    @Test
+    public void measuresTheDelayFromTheLastRun() {
+        mGovernor.onRun();
+        assertEquals(1000, mGovernor.getDelay());
+
+        mClock.now += 400;
+        assertEquals(600, mGovernor.getDelay());
+
+        mClock.now += 1000;
+        assertEquals(0, mGovernor.getDelay());
+
+        mGovernor.onRun();
+        assertEquals(1000, mGovernor.getDelay());
+    }
+}
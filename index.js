@@ -10,6 +10,7 @@ import {
   Text,
   StyleSheet,
   PermissionsAndroid,
+  DeviceEventEmitter,
 } from 'react-native';
 import { ViewPropTypes } from "deprecated-react-native-prop-types";
 
@@ -20,7 +21,23 @@ type PictureOptions = {
 type getPredictionsForImageOptions = {
     uri: string,
     modelFilename: string,
-    taxonomyFilename: string
+    taxonomyFilename: string,
+    topPredictionsCount?: number,
+    candidatesPerRank?: number,
+    numThreads?: number,
+    useXNNPack?: boolean
+};
+
+
+type getPredictionsForImagesOptions = {
+    uris: Array<string>,
+    modelFilename: string,
+    taxonomyFilename: string,
+    batchSize?: number,
+    topPredictionsCount?: number,
+    candidatesPerRank?: number,
+    numThreads?: number,
+    useXNNPack?: boolean
 };
 
 
@@ -28,14 +45,43 @@ export function getPredictionsForImage(options: getPredictionsForImageOptions) {
     return NativeModules.INatCameraModule.getPredictionsForImage(options); 
 }
 
+let nextBatchId = 0;
+
+// Classifies several images, calling onPrediction with each image's predictions (or error) as soon as they're
+// ready. Resolves with a summary (count, classified, failed, totalTime, timePerImage) once all are done.
+export async function getPredictionsForImages(options: getPredictionsForImagesOptions, onPrediction: (Object) => void) {
+    const batchId = String(nextBatchId++);
+    const subscription = DeviceEventEmitter.addListener('INatCameraBatchPrediction', (event) => {
+        if (event.batchId === batchId && onPrediction) {
+            onPrediction(event);
+        }
+    });
+
+    try {
+        return await NativeModules.INatCameraModule.getPredictionsForImages({ ...options, batchId });
+    } finally {
+        subscription.remove();
+    }
+}
+
 export class INatCamera extends React.Component<PropsType, StateType> {
     static propTypes = {
         taxaDetectionInterval: PropTypes.string,
+        targetDutyCycle: PropTypes.string,
+        minDetectionInterval: PropTypes.string,
+        maxDetectionInterval: PropTypes.string,
         modelPath: PropTypes.string,
         taxonomyPath: PropTypes.string,
         confidenceThreshold: PropTypes.string,
         filterByTaxonId: PropTypes.string,
         negativeFilter: PropTypes.bool,
+        numThreads: PropTypes.string,
+        useXNNPack: PropTypes.bool,
+        topPredictionsCount: PropTypes.string,
+        candidatesPerRank: PropTypes.string,
+        smoothingHalfLife: PropTypes.string,
+        smoothingResetThreshold: PropTypes.string,
+        sceneChangeThreshold: PropTypes.string,
         type: PropTypes.string,
         ...ViewPropTypes,
     };
@@ -110,10 +156,20 @@ export class INatCamera extends React.Component<PropsType, StateType> {
                     modelPath={this.props.modelPath}
                     taxonomyPath={this.props.taxonomyPath}
                     taxaDetectionInterval={this.props.taxaDetectionInterval}
+                    targetDutyCycle={this.props.targetDutyCycle}
+                    minDetectionInterval={this.props.minDetectionInterval}
+                    maxDetectionInterval={this.props.maxDetectionInterval}
                     confidenceThreshold={this.props.confidenceThreshold}
                     onLog={this._onLog}
                     filterByTaxonId={this.props.filterByTaxonId}
                     negativeFilter={this.props.negativeFilter}
+                    numThreads={this.props.numThreads}
+                    useXNNPack={this.props.useXNNPack}
+                    topPredictionsCount={this.props.topPredictionsCount}
+                    candidatesPerRank={this.props.candidatesPerRank}
+                    smoothingHalfLife={this.props.smoothingHalfLife}
+                    smoothingResetThreshold={this.props.smoothingResetThreshold}
+                    sceneChangeThreshold={this.props.sceneChangeThreshold}
                     type={this.props.type}
                 />
             </View>
@@ -136,6 +192,14 @@ export class INatCamera extends React.Component<PropsType, StateType> {
         return await NativeModules.INatCameraModule.takePictureAsync(options, this._cameraHandle); 
     }
 
+    // Statistics about the live classification: frameCount, skippedFrameCount, skipRatio, capturedFrameCount,
+    // droppedFrameCount, runState, detectionInterval, averageLatency, powerSaveMode, the last
+    // preprocessingTime / inferenceTime / postProcessingTime (in ms), and the time camera code spent on the
+    // main thread: mainThreadCameraCalls, mainThreadCameraTime / mainThreadCameraMaxTime (in ms)
+    async getStatistics() {
+        return await NativeModules.INatCameraModule.getStatistics(this._cameraHandle);
+    }
+
     resumePreview() {
         NativeModules.INatCameraModule.resumePreview(this._cameraHandle); 
     }